@@ -0,0 +1,79 @@
+package com.learn.developer.cache;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+/** Key computation for request shapes, and the lookups the key takes part in. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheKeyBenchmark {
+
+    @Param({ "none", "sorted", "unsorted" })
+    public String query;
+
+    @Param({ "0", "3" })
+    public int varyHeaders;
+
+    private ServerHttpRequest request;
+    private List<String> vary;
+    private CacheKey key;
+    private CacheKey equalKey;
+    private CacheKey otherKey;
+
+    @Setup
+    public void setUp() {
+        String uri = switch (query) {
+            case "sorted" -> "/users/42/orders?fields=id,total&limit=20&page=3&sort=desc";
+            case "unsorted" -> "/users/42/orders?sort=desc&page=3&fields=id,total&limit=20";
+            default -> "/users/42/orders";
+        };
+        request = MockServerHttpRequest.get(uri)
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "gzip, deflate, br")
+                .header("Accept-Language", "en-US,en;q=0.9")
+                .build();
+        vary = CacheKey.normalizeVaryHeaders(
+                List.of("Accept", "Accept-Encoding", "Accept-Language").subList(0, varyHeaders));
+        key = CacheKey.from(request, vary);
+        equalKey = CacheKey.from(request, vary);
+        otherKey = CacheKey.of("GET", "/users/43/orders", "");
+    }
+
+    @Benchmark
+    public CacheKey from() {
+        return CacheKey.from(request, vary);
+    }
+
+    @Benchmark
+    public int hashCodeOfKey() {
+        return key.hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsEqualKey() {
+        return key.equals(equalKey);
+    }
+
+    @Benchmark
+    public boolean equalsOtherKey() {
+        return key.equals(otherKey);
+    }
+}
@@ -0,0 +1,64 @@
+package com.learn.developer.cache;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+
+/** Building entries and reading them back, as every hit does. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachedResponseBenchmark {
+
+    @Param({ "1024", "65536" })
+    public int bodyBytes;
+
+    private byte[] body;
+    private HttpHeaders headers;
+    private Instant storedAt;
+    private CachedResponse response;
+
+    @Setup
+    public void setUp() {
+        body = new byte[bodyBytes];
+        headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, "application/json");
+        headers.set(HttpHeaders.CACHE_CONTROL, "public, max-age=60");
+        headers.set(HttpHeaders.ETAG, "\"v1\"");
+        headers.set(HttpHeaders.LAST_MODIFIED, "Wed, 21 Oct 2015 07:28:00 GMT");
+        headers.set(HttpHeaders.VARY, "Accept-Encoding");
+        storedAt = Instant.now();
+        response = construct();
+    }
+
+    @Benchmark
+    public CachedResponse construct() {
+        return new CachedResponse(CachedBody.heap(body), 200, headers, storedAt, 60, 30, 300);
+    }
+
+    @Benchmark
+    public ByteBuffer getBody() {
+        return response.getBody();
+    }
+
+    @Benchmark
+    public HttpHeaders getHeaders() {
+        return response.getHeaders();
+    }
+}
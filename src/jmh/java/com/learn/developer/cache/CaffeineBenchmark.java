@@ -0,0 +1,80 @@
+package com.learn.developer.cache;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Concurrent reads and writes on the cache as configured by {@link CacheConfig},
+ * with its weigher, expiry and listeners: six readers and two writers over a
+ * key space larger than the weight budget, so writes also evict.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaffeineBenchmark {
+
+    private static final int KEYS = 1 << 16;
+    private static final int BODY_BYTES = 1024;
+
+    private Cache<CacheKey, CachedResponse> cache;
+    private CacheKey[] keys;
+    private byte[] body;
+    private HttpHeaders headers;
+
+    @Setup
+    public void setUp() {
+        cache = CacheConfig.newCache(KEYS / 2L * BODY_BYTES, new ResponseExpiry(Duration.ofMinutes(5)), null,
+                new InvalidationIndex(), null, new SimpleMeterRegistry().counter("evictions"));
+        keys = new CacheKey[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = CacheKey.of("GET", "/items/" + i, "accept:application/json");
+        }
+        body = new byte[BODY_BYTES];
+        headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, "application/json");
+        for (int i = 0; i < KEYS / 2; i++) {
+            cache.put(keys[i], entry());
+        }
+    }
+
+    private CachedResponse entry() {
+        return new CachedResponse(CachedBody.heap(body), 200, headers, Instant.now(), 300, 0, 0);
+    }
+
+    @Benchmark
+    @Group("mix")
+    @GroupThreads(6)
+    public CachedResponse get() {
+        return cache.getIfPresent(keys[ThreadLocalRandom.current().nextInt(KEYS)]);
+    }
+
+    @Benchmark
+    @Group("mix")
+    @GroupThreads(2)
+    public void put() {
+        cache.put(keys[ThreadLocalRandom.current().nextInt(KEYS)], entry());
+    }
+}
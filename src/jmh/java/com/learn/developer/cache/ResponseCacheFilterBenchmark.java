@@ -0,0 +1,113 @@
+package com.learn.developer.cache;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * The filter end to end against a mock exchange: a hit answered from the cache,
+ * and a miss whose upstream response is captured and stored.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseCacheFilterBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Param({ "1024", "65536" })
+    public int bodyBytes;
+
+    private ResponseCacheFilter filter;
+    private Cache<CacheKey, CachedResponse> cache;
+    private GatewayFilterChain upstream;
+    private CacheKey missKey;
+
+    @Setup
+    public void setUp() {
+        CacheProperties props = new CacheProperties();
+        MeterRegistry registry = new SimpleMeterRegistry();
+        DefaultListableBeanFactory beans = new DefaultListableBeanFactory();
+        ResponseExpiry expiry = new ResponseExpiry(props.getTtl());
+        InvalidationIndex index = new InvalidationIndex();
+        cache = CacheConfig.newCache(props.getMaxWeightBytes(), expiry, null, index, null,
+                CacheConfig.evictions(registry, CachePolicy.DEFAULT_ROUTE));
+        CachePolicy policy = new CachePolicy(CachePolicy.DEFAULT_ROUTE, props.getTtl(), props.getMaxBodyBytes(),
+                props.getVaryHeaders(), props.isSkipWhenAuthorization(), false, cache, false, false, registry);
+        ResponseCacheGatewayFilterFactory routePolicies = new ResponseCacheGatewayFilterFactory(props, policy, expiry,
+                beans.getBeanProvider(DiskTier.class), index, beans.getBeanProvider(PrincipalPartitions.class),
+                registry);
+        filter = new ResponseCacheFilter(policy, props, new RequestCoalescer(registry), expiry, BodyStore.heap(),
+                beans.getBeanProvider(DiskTier.class), index,
+                new CacheInvalidator(cache, routePolicies, index, null, null, null),
+                beans.getBeanProvider(CachePeers.class), beans.getBeanProvider(CacheAdmission.class),
+                beans.getBeanProvider(PrincipalPartitions.class), beans.getBeanProvider(NegativeCache.class),
+                beans.getBeanProvider(VaryIndex.class));
+
+        byte[] body = new byte[bodyBytes];
+        upstream = exchange -> {
+            exchange.getResponse().setStatusCode(HttpStatus.OK);
+            HttpHeaders headers = exchange.getResponse().getHeaders();
+            headers.set(HttpHeaders.CONTENT_TYPE, "application/json");
+            headers.set(HttpHeaders.CACHE_CONTROL, "public, max-age=60");
+            headers.set(HttpHeaders.ETAG, "\"v1\"");
+            return exchange.getResponse()
+                    .writeWith(Mono.fromSupplier(() -> DefaultDataBufferFactory.sharedInstance.wrap(body)));
+        };
+
+        filter.filter(exchange("/items/hit"), upstream).block(TIMEOUT);
+        if (cache.estimatedSize() != 1) {
+            throw new IllegalStateException("the warm-up response was not cached");
+        }
+        missKey = CacheKey.from(exchange("/items/miss").getRequest(), CacheKey.normalizeVaryHeaders(
+                props.getVaryHeaders()));
+    }
+
+    private static MockServerWebExchange exchange(String uri) {
+        return MockServerWebExchange.from(MockServerHttpRequest.get(uri)
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "gzip"));
+    }
+
+    @Benchmark
+    public MockServerWebExchange hit() {
+        MockServerWebExchange exchange = exchange("/items/hit");
+        filter.filter(exchange, upstream).block(TIMEOUT);
+        return exchange;
+    }
+
+    @Benchmark
+    public MockServerWebExchange missAndStore() {
+        cache.invalidate(missKey);
+        MockServerWebExchange exchange = exchange("/items/miss");
+        filter.filter(exchange, upstream).block(TIMEOUT);
+        return exchange;
+    }
+}
@@ -0,0 +1,132 @@
+package com.learn.developer.load;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.http.HttpHeaders;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Open-loop load: requests start on a fixed schedule regardless of how many are
+ * still in flight, and each latency is measured from its scheduled start, so a
+ * stalled gateway shows up in the percentiles instead of slowing the driver.
+ */
+final class LoadDriver implements AutoCloseable {
+
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final LoadSettings settings;
+    private final ZipfKeys keys;
+    private final ConnectionProvider connections;
+    private final HttpClient client;
+
+    LoadDriver(int gatewayPort, LoadSettings settings) {
+        this.settings = settings;
+        this.keys = new ZipfKeys(settings.keys(), settings.zipfExponent(), settings.seed());
+        this.connections = ConnectionProvider.builder("load-test")
+                .maxConnections(settings.connections())
+                .pendingAcquireMaxCount(-1)
+                .build();
+        this.client = HttpClient.create(connections)
+                .baseUrl("http://127.0.0.1:" + gatewayPort)
+                .headers(h -> h.set(HttpHeaders.ACCEPT, "application/json"))
+                .responseTimeout(Duration.ofSeconds(10));
+    }
+
+    /** Drives the gateway for {@code duration} and waits for the requests in flight. */
+    Results run(Duration duration) {
+        Phase phase = new Phase();
+        long interval = TimeUnit.SECONDS.toNanos(1) / settings.rate();
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        long sent = 0;
+        for (long scheduled = start; scheduled < end; scheduled += interval) {
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            send(phase, scheduled);
+            sent++;
+        }
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+        while (phase.completed.sum() < sent && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        return phase.results(sent, System.nanoTime() - start);
+    }
+
+    private void send(Phase phase, long scheduled) {
+        client.get()
+                .uri("/items/" + keys.next())
+                .response((res, body) -> body.then(Mono.fromSupplier(() -> {
+                    if (res.status().code() >= 400) {
+                        return "ERROR";
+                    }
+                    String outcome = res.responseHeaders().get("X-Cache");
+                    return outcome != null ? outcome : "MISS";
+                })))
+                .next()
+                .subscribe(outcome -> phase.record(outcome, scheduled), error -> phase.record("ERROR", scheduled));
+    }
+
+    @Override
+    public void close() {
+        connections.disposeLater().block(DRAIN_TIMEOUT);
+    }
+
+    /** Counters of one {@link #run}. */
+    private static final class Phase {
+
+        final Recorder latencies = new Recorder(3);
+        final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+        final LongAdder completed = new LongAdder();
+
+        void record(String outcome, long scheduled) {
+            latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduled));
+            outcomes.computeIfAbsent(outcome, o -> new LongAdder()).increment();
+            completed.increment();
+        }
+
+        Results results(long sent, long elapsedNanos) {
+            Map<String, Long> counts = new TreeMap<>();
+            outcomes.forEach((outcome, count) -> counts.put(outcome, count.sum()));
+            return new Results(sent, completed.sum(), Duration.ofNanos(elapsedNanos), counts,
+                    latencies.getIntervalHistogram());
+        }
+    }
+
+    /**
+     * What one {@link #run} observed.
+     *
+     * @param outcomes responses by {@code X-Cache} value, {@code MISS} when absent and
+     *                 {@code ERROR} for failures and 4xx/5xx answers
+     * @param latencies microseconds from the scheduled start of each request to its completion
+     */
+    record Results(long sent, long completed, Duration elapsed, Map<String, Long> outcomes, Histogram latencies) {
+
+        long errors() {
+            return outcomes.getOrDefault("ERROR", 0L) + sent - completed;
+        }
+
+        /** Share of the answered requests served without contacting the upstream. */
+        double hitRatio() {
+            long answered = completed - outcomes.getOrDefault("ERROR", 0L);
+            long hits = outcomes.entrySet().stream()
+                    .filter(e -> e.getKey().startsWith("HIT") || e.getKey().startsWith("STALE")
+                            || e.getKey().equals("COALESCED"))
+                    .mapToLong(Map.Entry::getValue)
+                    .sum();
+            return answered == 0 ? 0 : (double) hits / answered;
+        }
+    }
+}
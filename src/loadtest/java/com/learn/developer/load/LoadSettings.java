@@ -0,0 +1,33 @@
+package com.learn.developer.load;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings of a load-test run, bound from the {@code --load.*} arguments.
+ *
+ * @param rate requests started per second, whether or not earlier ones have completed
+ * @param duration length of the measured phase
+ * @param warmup length of the unreported phase before it, which fills the cache
+ * @param keys number of distinct paths requested
+ * @param zipfExponent skew of the key popularity; 0 is uniform, around 1 is typical of web traffic
+ * @param seed seed of the key sequence, so runs can be compared
+ * @param connections most connections the driver opens to the gateway
+ * @param latency delay the stub upstream adds to every response
+ * @param bodySize size of the stub upstream's bodies
+ * @param cacheControl {@code Cache-Control} of the stub upstream's responses
+ */
+record LoadSettings(
+        @DefaultValue("500") int rate,
+        @DefaultValue("30s") Duration duration,
+        @DefaultValue("10s") Duration warmup,
+        @DefaultValue("10000") int keys,
+        @DefaultValue("1.0") double zipfExponent,
+        @DefaultValue("42") long seed,
+        @DefaultValue("512") int connections,
+        @DefaultValue("20ms") Duration latency,
+        @DefaultValue("2KB") DataSize bodySize,
+        @DefaultValue("public, max-age=60") String cacheControl) {
+}
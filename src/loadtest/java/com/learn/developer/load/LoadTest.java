@@ -0,0 +1,117 @@
+package com.learn.developer.load;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import com.learn.developer.ReactiveGatewayCacheApplication;
+
+/**
+ * Runs the gateway in this JVM in front of a {@link StubUpstream}, drives it with
+ * {@link LoadDriver} and prints hit ratio, latency percentiles, upstream traffic,
+ * heap and allocation figures.
+ *
+ * <p>{@code --load.*} arguments configure the run (see {@link LoadSettings}); any
+ * other {@code --name=value} argument is passed on to the gateway, e.g.
+ * {@code --gateway.cache.admission.enabled=true}.
+ */
+public final class LoadTest {
+
+    private static final String PREFIX = "--load.";
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) {
+        StandardEnvironment env = new StandardEnvironment();
+        env.getPropertySources().addFirst(new SimpleCommandLinePropertySource(args));
+        LoadSettings settings = Binder.get(env).bindOrCreate("load", Bindable.of(LoadSettings.class));
+
+        try (StubUpstream upstream = new StubUpstream(settings.latency(), (int) settings.bodySize().toBytes(),
+                settings.cacheControl());
+                ConfigurableApplicationContext gateway = new SpringApplicationBuilder(
+                        ReactiveGatewayCacheApplication.class).run(gatewayArgs(upstream, args));
+                LoadDriver driver = new LoadDriver(
+                        gateway.getEnvironment().getRequiredProperty("local.server.port", Integer.class), settings)) {
+            PrintStream out = System.out;
+            out.printf("%d keys (zipf %.2f), %d req/s, upstream %s latency, %s bodies, Cache-Control: %s%n",
+                    settings.keys(), settings.zipfExponent(), settings.rate(), settings.latency(),
+                    settings.bodySize(), settings.cacheControl());
+            out.printf("warming up for %s%n", settings.warmup());
+            driver.run(settings.warmup());
+
+            JvmSnapshot before = JvmSnapshot.take();
+            long upstreamBefore = upstream.requests();
+            out.printf("measuring for %s%n", settings.duration());
+            LoadDriver.Results results = driver.run(settings.duration());
+            JvmSnapshot after = JvmSnapshot.take();
+            report(out, results, upstream.requests() - upstreamBefore, before, after);
+        }
+    }
+
+    private static String[] gatewayArgs(StubUpstream upstream, String[] args) {
+        String route = "--spring.cloud.gateway.server.webflux.routes[0].";
+        List<String> gatewayArgs = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--logging.level.root=WARN",
+                route + "id=load-test",
+                route + "uri=http://127.0.0.1:" + upstream.port(),
+                route + "predicates[0]=Path=/items/**"));
+        Arrays.stream(args).filter(arg -> !arg.startsWith(PREFIX)).forEach(gatewayArgs::add);
+        return gatewayArgs.toArray(String[]::new);
+    }
+
+    private static void report(PrintStream out, LoadDriver.Results results, long upstreamRequests,
+            JvmSnapshot before, JvmSnapshot after) {
+        double seconds = results.elapsed().toNanos() / 1e9;
+        Histogram latencies = results.latencies();
+        long allocated = after.allocatedBytes() - before.allocatedBytes();
+
+        out.println();
+        out.printf("requests      %d sent, %d completed, %d errors, %.1f req/s%n", results.sent(),
+                results.completed(), results.errors(), results.completed() / seconds);
+        out.printf("outcomes      %s%n", results.outcomes());
+        out.printf("hit ratio     %.2f%%%n", results.hitRatio() * 100);
+        out.printf("latency (ms)  p50 %.2f  p99 %.2f  p999 %.2f  max %.2f%n",
+                latencies.getValueAtPercentile(50) / 1e3, latencies.getValueAtPercentile(99) / 1e3,
+                latencies.getValueAtPercentile(99.9) / 1e3, latencies.getMaxValue() / 1e3);
+        out.printf("upstream      %d requests, %.3f per gateway request%n", upstreamRequests,
+                results.completed() == 0 ? 0 : (double) upstreamRequests / results.completed());
+        out.printf("heap          %d MiB used of %d MiB committed%n", after.heapUsed() >> 20,
+                after.heapCommitted() >> 20);
+        out.printf("allocation    %.1f MiB/s, %d B per request (whole JVM: gateway, driver and stub)%n",
+                allocated / seconds / (1 << 20), results.completed() == 0 ? 0 : allocated / results.completed());
+        out.printf("gc            %d collections, %d ms%n", after.gcCount() - before.gcCount(),
+                after.gcMillis() - before.gcMillis());
+    }
+
+    /** JVM-wide memory and GC counters at one instant. */
+    private record JvmSnapshot(long heapUsed, long heapCommitted, long allocatedBytes, long gcCount, long gcMillis) {
+
+        static JvmSnapshot take() {
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long gcCount = 0;
+            long gcMillis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcCount += Math.max(gc.getCollectionCount(), 0);
+                gcMillis += Math.max(gc.getCollectionTime(), 0);
+            }
+            return new JvmSnapshot(memory.getHeapMemoryUsage().getUsed(), memory.getHeapMemoryUsage().getCommitted(),
+                    threads.getTotalThreadAllocatedBytes(), gcCount, gcMillis);
+        }
+    }
+}
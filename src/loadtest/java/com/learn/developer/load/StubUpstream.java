@@ -0,0 +1,51 @@
+package com.learn.developer.load;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.http.HttpHeaders;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * A local upstream answering every request after a fixed delay with a body of a
+ * fixed size and a fixed {@code Cache-Control}, counting what reaches it.
+ */
+final class StubUpstream implements AutoCloseable {
+
+    private final AtomicLong requests = new AtomicLong();
+    private final DisposableServer server;
+
+    StubUpstream(Duration latency, int bodyBytes, String cacheControl) {
+        byte[] body = new byte[bodyBytes];
+        Arrays.fill(body, (byte) 'x');
+        this.server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .handle((req, res) -> {
+                    requests.incrementAndGet();
+                    Mono<Void> reply = res.header(HttpHeaders.CONTENT_TYPE, "application/octet-stream")
+                            .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                            .sendByteArray(Mono.just(body))
+                            .then();
+                    return latency.isZero() ? reply : Mono.delay(latency).then(reply);
+                })
+                .bindNow();
+    }
+
+    int port() {
+        return server.port();
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+}
@@ -0,0 +1,35 @@
+package com.learn.developer.load;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Ranks from 1 to {@code n}, rank {@code k} drawn with probability proportional
+ * to {@code 1 / k^exponent}. Not thread-safe.
+ */
+final class ZipfKeys {
+
+    private final double[] cumulative;
+    private final SplittableRandom random;
+
+    ZipfKeys(int n, double exponent, long seed) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        this.cumulative = new double[n];
+        double sum = 0;
+        for (int k = 1; k <= n; k++) {
+            sum += 1 / Math.pow(k, exponent);
+            cumulative[k - 1] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulative[i] /= sum;
+        }
+        this.random = new SplittableRandom(seed);
+    }
+
+    int next() {
+        int i = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(i >= 0 ? i : -i - 1, cumulative.length - 1) + 1;
+    }
+}
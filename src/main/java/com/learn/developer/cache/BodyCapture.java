@@ -0,0 +1,98 @@
+package com.learn.developer.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Records a response body as it streams to the client without copying it: each
+ * buffer is kept as a retained duplicate that shares its memory, and the client
+ * still receives the original buffer. The bytes are copied once, straight into
+ * their storage, when the response is stored. Capture stops and lets go of
+ * everything it holds as soon as the body exceeds the limit.
+ * <p>
+ * Holders must call {@link #release()} once the response has terminated.
+ */
+final class BodyCapture {
+
+    private final int limit;
+    private final List<ByteBuf> parts = new ArrayList<>();
+    private int size;
+    private boolean overflowed;
+    private boolean released;
+
+    BodyCapture(int limit) {
+        this.limit = limit;
+    }
+
+    /** Keeps a view of the buffer's readable bytes; the buffer itself is not changed. */
+    synchronized void add(DataBuffer buffer) {
+        if (overflowed || released) {
+            return;
+        }
+        int readable = buffer.readableByteCount();
+        if (size + readable > limit) {
+            overflowed = true;
+            releaseParts();
+            return;
+        }
+        parts.add(view(buffer, readable));
+        size += readable;
+    }
+
+    private static ByteBuf view(DataBuffer buffer, int readable) {
+        if (buffer instanceof NettyDataBuffer netty) {
+            return netty.getNativeBuffer().retainedDuplicate();
+        }
+        // not backed by Netty: nothing to share, so take a copy
+        byte[] copy = new byte[readable];
+        buffer.toByteBuffer(buffer.readPosition(), ByteBuffer.wrap(copy), 0, readable);
+        return Unpooled.wrappedBuffer(copy);
+    }
+
+    synchronized boolean isComplete() {
+        return !overflowed && !released;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized byte[] toByteArray() {
+        byte[] bytes = new byte[size];
+        int offset = 0;
+        for (ByteBuf part : parts) {
+            int n = part.readableBytes();
+            part.getBytes(part.readerIndex(), bytes, offset, n);
+            offset += n;
+        }
+        return bytes;
+    }
+
+    /** Copies the body to {@code dst} starting at its position, which is advanced. */
+    synchronized void copyTo(ByteBuffer dst) {
+        for (ByteBuf part : parts) {
+            int n = part.readableBytes();
+            part.getBytes(part.readerIndex(), dst.slice(dst.position(), n));
+            dst.position(dst.position() + n);
+        }
+    }
+
+    synchronized void release() {
+        released = true;
+        releaseParts();
+    }
+
+    private void releaseParts() {
+        for (ByteBuf part : parts) {
+            part.release();
+        }
+        parts.clear();
+    }
+}
@@ -0,0 +1,61 @@
+package com.learn.developer.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Decides where captured bodies live: on the heap, or in a {@link SlabAllocator}
+ * when {@code gateway.cache.off-heap.enabled} is set.
+ */
+public final class BodyStore {
+
+    public static BodyStore heap() {
+        return new BodyStore(null, null);
+    }
+
+    public static BodyStore offHeap(SlabAllocator allocator, MeterRegistry registry) {
+        Gauge.builder("gateway.cache.offheap.used.bytes", allocator, SlabAllocator::getUsedBytes)
+                .description("Off-heap bytes held by cached bodies, counted in whole chunks")
+                .register(registry);
+        Gauge.builder("gateway.cache.offheap.reserved.bytes", allocator, SlabAllocator::getReservedBytes)
+                .description("Direct memory reserved in slabs")
+                .register(registry);
+        Counter failures = Counter.builder("gateway.cache.offheap.allocation.failures")
+                .description("Responses not cached because no off-heap chunk was free")
+                .register(registry);
+        return new BodyStore(allocator, failures);
+    }
+
+    private final SlabAllocator allocator;
+    private final Counter failures;
+
+    private BodyStore(SlabAllocator allocator, Counter failures) {
+        this.allocator = allocator;
+        this.failures = failures;
+    }
+
+    /** Takes ownership of {@code bytes}; returns {@code null} if they cannot be stored. */
+    public CachedBody store(byte[] bytes) {
+        if (allocator == null) {
+            return CachedBody.heap(bytes);
+        }
+        CachedBody body = CachedBody.offHeap(bytes, allocator);
+        if (body == null) {
+            failures.increment();
+        }
+        return body;
+    }
+
+    /** Stores a captured body, copying it exactly once; returns {@code null} if it cannot be stored. */
+    CachedBody store(BodyCapture capture) {
+        if (allocator == null) {
+            return CachedBody.heap(capture.toByteArray());
+        }
+        CachedBody body = CachedBody.offHeap(capture, allocator);
+        if (body == null) {
+            failures.increment();
+        }
+        return body;
+    }
+}
@@ -0,0 +1,170 @@
+package com.learn.developer.cache;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * TinyLFU-style admission: a cacheable response is stored only once its key has
+ * missed {@code min-hits} times within about a {@code window}, so one-hit
+ * wonders such as crawler or unique-query traffic are passed through without
+ * being stored. Concurrent misses still share one upstream call: a rejected
+ * response is captured only when coalesced followers are waiting for it.
+ * <p>
+ * Misses are counted in a fixed {@code memory-bytes}: a Bloom doorkeeper takes
+ * the first miss of each key, and a count-min sketch of 4-bit counters (with
+ * conservative update) the following ones. Every window, or after ten misses
+ * per counter of a row, the counters are halved and the doorkeeper is cleared,
+ * so old popularity fades.
+ */
+public final class CacheAdmission {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = { 0x97cb3127, 0xb8c1e1d7, 0x4b1a3f39, 0xe8d2c4f3 };
+
+    private final int minHits;
+    private final long windowNanos;
+    private final long[] table; // DEPTH rows of 16 counters per long
+    private final int rowLongs;
+    private final int rowMask; // counters per row - 1
+    private final long[] doorkeeper;
+    private final int doorkeeperMask; // bits - 1
+    private final int sampleSize;
+
+    private long windowStart; // guarded by this
+    private int additions; // guarded by this
+
+    private final Counter admitted;
+    private final Counter rejected;
+
+    public CacheAdmission(CacheProperties.Admission props, MeterRegistry registry) {
+        this(props.getMinHits(), props.getWindow(), props.getMemoryBytes(), registry);
+    }
+
+    CacheAdmission(int minHits, Duration window, long memoryBytes, MeterRegistry registry) {
+        if (minHits < 1 || minHits > MAX_COUNT + 1) {
+            throw new IllegalArgumentException("min-hits must be between 1 and " + (MAX_COUNT + 1));
+        }
+        this.minHits = minHits;
+        this.windowNanos = window.toNanos();
+        // a quarter of the budget for the doorkeeper, the rest for the sketch
+        int doorkeeperBits = floorPowerOfTwo(Math.max(64, memoryBytes * 8 / 4));
+        this.doorkeeper = new long[doorkeeperBits / 64];
+        this.doorkeeperMask = doorkeeperBits - 1;
+        int countersPerRow = floorPowerOfTwo(Math.max(16, memoryBytes * 3 / 4 * 2 / DEPTH));
+        this.rowLongs = countersPerRow / 16;
+        this.rowMask = countersPerRow - 1;
+        this.table = new long[DEPTH * rowLongs];
+        this.sampleSize = 10 * countersPerRow;
+        this.windowStart = System.nanoTime();
+        this.admitted = decisions(registry, "admitted");
+        this.rejected = decisions(registry, "rejected");
+    }
+
+    private static Counter decisions(MeterRegistry registry, String result) {
+        return Counter.builder("gateway.cache.admission")
+                .description("Cacheable misses by admission decision")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private static int floorPowerOfTwo(long n) {
+        return (int) Long.highestOneBit(Math.min(n, 1 << 30));
+    }
+
+    /** Records a miss for {@code key} and returns whether to store its response. */
+    public boolean admit(CacheKey key) {
+        boolean admit;
+        synchronized (this) {
+            age();
+            int h = key.hashCode();
+            // the sketch keeps what the doorkeeper forgot when it was last cleared
+            int frequency = 1 + (addToDoorkeeper(h) ? increment(h) : estimate(h));
+            admit = frequency >= minHits;
+        }
+        (admit ? admitted : rejected).increment();
+        return admit;
+    }
+
+    /** Misses recorded for {@code key} in the current window, as estimated. */
+    synchronized int frequency(CacheKey key) {
+        int h = key.hashCode();
+        return (inDoorkeeper(h) ? 1 : 0) + estimate(h);
+    }
+
+    private void age() {
+        long now = System.nanoTime();
+        if (++additions < sampleSize && (windowNanos <= 0 || now - windowStart < windowNanos)) {
+            return;
+        }
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+        }
+        Arrays.fill(doorkeeper, 0L);
+        additions = 0;
+        windowStart = now;
+    }
+
+    /** Sets the key's doorkeeper bits; returns whether they were all set already. */
+    private boolean addToDoorkeeper(int h) {
+        boolean present = true;
+        for (int i = 0; i < 2; i++) {
+            int bit = mix(h, ~SEEDS[i]) & doorkeeperMask;
+            long mask = 1L << bit;
+            present &= (doorkeeper[bit >>> 6] & mask) != 0;
+            doorkeeper[bit >>> 6] |= mask;
+        }
+        return present;
+    }
+
+    private boolean inDoorkeeper(int h) {
+        for (int i = 0; i < 2; i++) {
+            int bit = mix(h, ~SEEDS[i]) & doorkeeperMask;
+            if ((doorkeeper[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Conservative update: only the counters at the minimum grow. Returns the new estimate. */
+    private int increment(int h) {
+        int min = estimate(h);
+        if (min == MAX_COUNT) {
+            return min;
+        }
+        for (int row = 0; row < DEPTH; row++) {
+            int counter = mix(h, SEEDS[row]) & rowMask;
+            int index = row * rowLongs + (counter >>> 4);
+            int shift = (counter & 15) << 2;
+            if (((table[index] >>> shift) & 0xf) == min) {
+                table[index] += 1L << shift;
+            }
+        }
+        return min + 1;
+    }
+
+    private int estimate(int h) {
+        int min = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            int counter = mix(h, SEEDS[row]) & rowMask;
+            long value = (table[row * rowLongs + (counter >>> 4)] >>> ((counter & 15) << 2)) & 0xf;
+            min = Math.min(min, (int) value);
+        }
+        return min;
+    }
+
+    /** MurmurHash3's 32-bit finalizer over the seeded hash. */
+    private static int mix(int h, int seed) {
+        int x = (h ^ seed) * 0x9e3779b9;
+        x ^= x >>> 16;
+        x *= 0x85ebca6b;
+        x ^= x >>> 13;
+        x *= 0xc2b2ae35;
+        x ^= x >>> 16;
+        return x;
+    }
+}
@@ -1,12 +1,18 @@
 package com.learn.developer.cache;
 
+import java.io.IOException;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.github.benmanes.caffeine.cache.Weigher;
 
+import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 
@@ -14,18 +20,190 @@ import io.micrometer.core.instrument.MeterRegistry;
 public class CacheConfig {
 
     @Bean
-    Cache<CacheKey, CachedResponse> responseCache(CacheProperties props, MeterRegistry registry) {
-        Caffeine<CacheKey, CachedResponse> builder = Caffeine.newBuilder()
-                .recordStats()
-                .expireAfterWrite(props.getTtl())
-                .maximumWeight(props.getMaxWeightBytes())
-                .weigher((Weigher<CacheKey, CachedResponse>) (k, v) -> v == null ? 0 : v.weight());
-
-        Cache<CacheKey, CachedResponse> cache = builder.build();
+    Cache<CacheKey, CachedResponse> responseCache(CacheProperties props, ResponseExpiry expiry,
+            MeterRegistry registry, ObjectProvider<DiskTier> diskTier, InvalidationIndex invalidationIndex,
+            ObjectProvider<PrincipalPartitions> partitions) {
+        Cache<CacheKey, CachedResponse> cache = newCache(props.getMaxWeightBytes(), expiry, diskTier.getIfAvailable(),
+                invalidationIndex, partitions.getIfAvailable(), evictions(registry, CachePolicy.DEFAULT_ROUTE));
 
         Gauge.builder("gateway.cache.size", cache, c -> c.estimatedSize()).register(registry);
-        Gauge.builder("gateway.cache.weight.bytes", cache, c -> (double) props.getMaxWeightBytes()).register(registry);
+        Gauge.builder("gateway.cache.weight.bytes", cache, CacheConfig::weightedSize)
+                .description("Estimated heap and off-heap bytes held by the entries")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("gateway.cache.weight.max.bytes", cache, CacheConfig::maximumWeight)
+                .baseUnit("bytes")
+                .register(registry);
 
         return cache;
     }
+
+    /** Policy of the routes without a {@code ResponseCache} filter. */
+    @Bean
+    CachePolicy defaultCachePolicy(Cache<CacheKey, CachedResponse> responseCache, CacheProperties props,
+            MeterRegistry registry) {
+        return new CachePolicy(CachePolicy.DEFAULT_ROUTE, props.getTtl(), props.getMaxBodyBytes(),
+                props.getVaryHeaders(), props.isSkipWhenAuthorization(), props.getCompression().isEnabled(),
+                responseCache, false, props.getMetrics().isPerRoute(), registry);
+    }
+
+    /**
+     * A response cache holding at most {@code maxWeightBytes} of entries, weighed
+     * by their keys, headers and bodies, whose removals are reflected in
+     * {@code index} and credited to {@code partitions}; {@code l2} and
+     * {@code partitions} may be null.
+     */
+    static Cache<CacheKey, CachedResponse> newCache(long maxWeightBytes, ResponseExpiry expiry, DiskTier l2,
+            InvalidationIndex index, PrincipalPartitions partitions, Counter evictions) {
+        return Caffeine.newBuilder()
+                .recordStats()
+                .expireAfter(expiry)
+                .maximumWeight(maxWeightBytes)
+                .weigher((Weigher<CacheKey, CachedResponse>) (k, v) -> v == null ? 0 : weight(k, v))
+                // runs before the removal listener, while the body is still referenced
+                .evictionListener((CacheKey k, CachedResponse v, RemovalCause cause) -> {
+                    if (cause == RemovalCause.SIZE) {
+                        evictions.increment();
+                        if (l2 != null && v != null) {
+                            l2.demote(k, v);
+                        }
+                    }
+                })
+                // frees off-heap bodies once no response is being written from them
+                .removalListener((CacheKey k, CachedResponse v, RemovalCause cause) -> {
+                    if (v != null) {
+                        index.removed(k, v);
+                        if (partitions != null) {
+                            partitions.removed(k, v);
+                        }
+                        v.release();
+                    }
+                })
+                .build();
+    }
+
+    /** Estimated bytes held by an entry: its key, its value and the cache's node. */
+    static int weight(CacheKey key, CachedResponse value) {
+        return Footprint.CACHE_NODE + key.weight() + value.weight();
+    }
+
+    /** Current weight of the entries, as tracked by the cache's eviction policy. */
+    static double weightedSize(Cache<CacheKey, CachedResponse> cache) {
+        return cache.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L);
+    }
+
+    static double maximumWeight(Cache<CacheKey, CachedResponse> cache) {
+        return cache.policy().eviction().map(e -> e.getMaximum()).orElse(0L);
+    }
+
+    static Counter evictions(MeterRegistry registry, String routeId) {
+        return Counter.builder("gateway.cache.route.evictions")
+                .description("Entries evicted to stay within the weight budget")
+                .tag("route", routeId)
+                .register(registry);
+    }
+
+    @Bean
+    InvalidationIndex invalidationIndex() {
+        return new InvalidationIndex();
+    }
+
+    @Bean
+    CacheInvalidator cacheInvalidator(Cache<CacheKey, CachedResponse> responseCache,
+            ResponseCacheGatewayFilterFactory routePolicies, InvalidationIndex invalidationIndex,
+            ObjectProvider<DiskTier> diskTier, ObjectProvider<InvalidationBus> invalidationBus,
+            ObjectProvider<NegativeCache> negativeCache) {
+        return new CacheInvalidator(responseCache, routePolicies, invalidationIndex, diskTier.getIfAvailable(),
+                invalidationBus.getIfAvailable(), negativeCache.getIfAvailable());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "gateway.cache.negative", name = "enabled", havingValue = "true")
+    NegativeCache negativeCache(CacheProperties props, ResponseExpiry expiry, InvalidationIndex invalidationIndex,
+            ObjectProvider<PrincipalPartitions> partitions, MeterRegistry registry) {
+        return new NegativeCache(props.getNegative(), expiry, invalidationIndex, partitions.getIfAvailable(),
+                registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "gateway.cache.cluster", name = "enabled", havingValue = "true")
+    InvalidationBus invalidationBus(CacheProperties props, MeterRegistry registry) throws IOException {
+        CacheProperties.Cluster cluster = props.getCluster();
+        InvalidationTransport transport = switch (cluster.getTransport()) {
+            case "multicast" -> new MulticastTransport(cluster);
+            case "loopback" -> new LoopbackTransport(LoopbackTransport.DEFAULT_GROUP);
+            default -> throw new IllegalArgumentException(
+                    "Unknown gateway.cache.cluster.transport: " + cluster.getTransport());
+        };
+        return new InvalidationBus(transport, cluster, registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "gateway.cache.peers", name = "enabled", havingValue = "true")
+    CachePeers cachePeers(CacheProperties props, MeterRegistry registry) {
+        return new CachePeers(props.getPeers(), registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "gateway.cache.authorized", name = "enabled", havingValue = "true")
+    PrincipalPartitions principalPartitions(CacheProperties props, MeterRegistry registry) {
+        return new PrincipalPartitions(props.getAuthorized(), registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "gateway.cache.admission", name = "enabled", havingValue = "true")
+    CacheAdmission cacheAdmission(CacheProperties props, MeterRegistry registry) {
+        return new CacheAdmission(props.getAdmission(), registry);
+    }
+
+    @Bean
+    BodyStore bodyStore(CacheProperties props, MeterRegistry registry) {
+        CacheProperties.OffHeap offHeap = props.getOffHeap();
+        if (!offHeap.isEnabled()) {
+            return BodyStore.heap();
+        }
+        SlabAllocator allocator = new SlabAllocator(props.getMaxWeightBytes(), offHeap.getSlabBytes(),
+                offHeap.getMinChunkBytes());
+        return BodyStore.offHeap(allocator, registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "gateway.cache.snapshot", name = "enabled", havingValue = "true")
+    CacheSnapshot cacheSnapshot(CachePolicy defaultCachePolicy, ResponseExpiry expiry, BodyStore bodyStore,
+            InvalidationIndex invalidationIndex, ObjectProvider<VaryIndex> varyIndex, CacheProperties props,
+            MeterRegistry registry) {
+        return new CacheSnapshot(defaultCachePolicy, expiry, bodyStore, invalidationIndex, varyIndex.getIfAvailable(),
+                props, registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "gateway.cache.vary", name = "from-response", havingValue = "true",
+            matchIfMissing = true)
+    VaryIndex varyIndex(CacheProperties props) {
+        return new VaryIndex(props.getVary().getMaxResources());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "gateway.cache.prewarm", name = "enabled", havingValue = "true")
+    CachePrewarmer cachePrewarmer(CachePolicy defaultCachePolicy, ResponseCacheGatewayFilterFactory routePolicies,
+            CacheProperties props, MeterRegistry registry) {
+        return new CachePrewarmer(defaultCachePolicy, routePolicies, props.getPrewarm(), registry);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "gateway.cache.disk", name = "enabled", havingValue = "true")
+    DiskTier diskTier(CacheProperties props, ResponseExpiry expiry, BodyStore bodyStore,
+            InvalidationIndex invalidationIndex, MeterRegistry registry) throws IOException {
+        return new DiskTier(props.getDisk(), expiry, bodyStore, invalidationIndex, registry);
+    }
+
+    @Bean
+    ResponseExpiry responseExpiry(CacheProperties props) {
+        return new ResponseExpiry(props.getTtl());
+    }
+
+    @Bean
+    RequestCoalescer requestCoalescer(MeterRegistry registry) {
+        return new RequestCoalescer(registry);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,133 @@
+package com.learn.developer.cache;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parsed view of the {@code Cache-Control} directives the gateway acts on.
+ * Delta-seconds directives that are absent or malformed are reported as -1.
+ */
+public final class CacheDirectives {
+
+    private static final CacheDirectives NONE = new CacheDirectives();
+
+    public static CacheDirectives parse(List<String> cacheControl) {
+        if (cacheControl == null || cacheControl.isEmpty()) {
+            return NONE;
+        }
+        return parse(cacheControl.size() == 1 ? cacheControl.get(0) : String.join(",", cacheControl));
+    }
+
+    public static CacheDirectives parse(String cacheControl) {
+        if (cacheControl == null || cacheControl.isBlank()) {
+            return NONE;
+        }
+
+        CacheDirectives d = new CacheDirectives();
+        for (String part : cacheControl.split(",")) {
+            String token = part.trim();
+            if (token.isEmpty()) {
+                continue;
+            }
+
+            String name = token;
+            String value = null;
+            int eq = token.indexOf('=');
+            if (eq >= 0) {
+                name = token.substring(0, eq).trim();
+                value = token.substring(eq + 1).trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+            }
+
+            switch (name.toLowerCase(Locale.ROOT)) {
+                case "no-store" -> d.noStore = true;
+                case "no-cache" -> d.noCache = true;
+                case "private" -> d.privateResponse = true;
+                case "public" -> d.publicResponse = true;
+                case "must-revalidate", "proxy-revalidate" -> d.mustRevalidate = true;
+                case "no-transform" -> d.noTransform = true;
+                case "max-age" -> d.maxAge = deltaSeconds(value);
+                case "s-maxage" -> d.sMaxAge = deltaSeconds(value);
+                case "stale-while-revalidate" -> d.staleWhileRevalidate = deltaSeconds(value);
+                case "stale-if-error" -> d.staleIfError = deltaSeconds(value);
+                default -> {
+                    // ignore extensions we do not act on
+                }
+            }
+        }
+        return d;
+    }
+
+    private static long deltaSeconds(String value) {
+        if (value == null || value.isEmpty()) {
+            return -1;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return -1;
+            }
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // larger than a long: treat as "forever", the TTL ceiling applies anyway
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private boolean noStore;
+    private boolean noCache;
+    private boolean privateResponse;
+    private boolean publicResponse;
+    private boolean mustRevalidate;
+    private boolean noTransform;
+    private long maxAge = -1;
+    private long sMaxAge = -1;
+    private long staleWhileRevalidate = -1;
+    private long staleIfError = -1;
+
+    private CacheDirectives() {
+    }
+
+    public boolean isNoStore() {
+        return noStore;
+    }
+
+    public boolean isNoCache() {
+        return noCache;
+    }
+
+    public boolean isPrivate() {
+        return privateResponse;
+    }
+
+    public boolean isPublic() {
+        return publicResponse;
+    }
+
+    public boolean isMustRevalidate() {
+        return mustRevalidate;
+    }
+
+    public boolean isNoTransform() {
+        return noTransform;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public long getSMaxAge() {
+        return sMaxAge;
+    }
+
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    public long getStaleIfError() {
+        return staleIfError;
+    }
+}
@@ -0,0 +1,141 @@
+package com.learn.developer.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Applies {@link Invalidation}s to every tier of this gateway: the shared cache,
+ * the routes' own budgets, the negative entries and the disk tier. When the {@link InvalidationBus} is
+ * enabled, invalidations made here are also published to the other replicas,
+ * and theirs are applied here without being published again.
+ */
+public final class CacheInvalidator {
+
+    private final Cache<CacheKey, CachedResponse> cache;
+    private final ResponseCacheGatewayFilterFactory routePolicies;
+    private final InvalidationIndex index;
+    private final DiskTier diskTier;
+    private final InvalidationBus bus;
+    private final NegativeCache negativeCache;
+
+    /** {@code diskTier}, {@code bus} and {@code negativeCache} may be null. */
+    public CacheInvalidator(Cache<CacheKey, CachedResponse> cache, ResponseCacheGatewayFilterFactory routePolicies,
+            InvalidationIndex index, DiskTier diskTier, InvalidationBus bus, NegativeCache negativeCache) {
+        this.cache = cache;
+        this.routePolicies = routePolicies;
+        this.index = index;
+        this.diskTier = diskTier;
+        this.bus = bus;
+        this.negativeCache = negativeCache;
+        if (bus != null) {
+            bus.onReceive(this::apply);
+        }
+    }
+
+    /**
+     * Applies {@code invalidation} here and publishes it to the other replicas.
+     * Returns the number of entries invalidated here.
+     */
+    public int invalidate(Invalidation invalidation) {
+        int invalidated = apply(invalidation);
+        if (bus != null) {
+            bus.publish(invalidation);
+        }
+        return invalidated;
+    }
+
+    /**
+     * Invalidates like {@link #invalidate}, for callers on an event loop: the heap
+     * tiers at once, and the disk tier and the other replicas on another thread,
+     * since the disk tier scans its whole index. The heap tiers are invalidated
+     * again after the disk tier, for the entries it promoted meanwhile. Returns
+     * the number of entries invalidated at once.
+     */
+    public int invalidateSoon(Invalidation invalidation) {
+        int invalidated = inMemory(invalidation);
+        if (diskTier != null || bus != null) {
+            Schedulers.boundedElastic().schedule(() -> invalidate(invalidation));
+        }
+        return invalidated;
+    }
+
+    /**
+     * Applies {@code invalidation} to this gateway only. The disk tier goes
+     * first, so an entry it promotes meanwhile is caught in the heap tiers.
+     */
+    int apply(Invalidation invalidation) {
+        return onDisk(invalidation) + inMemory(invalidation);
+    }
+
+    private int inMemory(Invalidation invalidation) {
+        String target = invalidation.target();
+        return switch (invalidation.kind()) {
+            case CLEAR -> clear();
+            case KEY -> evict(invalidation.key());
+            case PATH -> index.invalidatePath(target);
+            case PREFIX -> index.invalidatePrefix(target);
+            case GLOB -> index.invalidateGlob(target);
+            case TAG -> index.invalidateTag(target);
+        };
+    }
+
+    private int onDisk(Invalidation invalidation) {
+        if (diskTier == null) {
+            return 0;
+        }
+        String target = invalidation.target();
+        return switch (invalidation.kind()) {
+            case CLEAR -> {
+                int cleared = (int) Math.min(diskTier.size(), Integer.MAX_VALUE);
+                diskTier.invalidateAll();
+                yield cleared;
+            }
+            case KEY -> {
+                diskTier.invalidate(invalidation.key());
+                yield 0;
+            }
+            case PATH -> diskTier.invalidateMatching((k, tags) -> InvalidationIndex.matchesPath(k.getPath(), target));
+            case PREFIX -> diskTier.invalidateMatching(
+                    (k, tags) -> InvalidationIndex.matchesPrefix(k.getPath(), target));
+            case GLOB -> diskTier.invalidateMatching((k, tags) -> InvalidationIndex.matchesGlob(k.getPath(), target));
+            case TAG -> diskTier.invalidateMatching((k, tags) -> tags.contains(target));
+        };
+    }
+
+    private int clear() {
+        long cleared = 0;
+        for (Cache<CacheKey, CachedResponse> c : caches()) {
+            cleared += c.estimatedSize();
+            c.invalidateAll();
+        }
+        return (int) Math.min(cleared, Integer.MAX_VALUE);
+    }
+
+    private int evict(CacheKey key) {
+        int evicted = 0;
+        for (Cache<CacheKey, CachedResponse> c : caches()) {
+            if (c.asMap().remove(key) != null) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    private List<Cache<CacheKey, CachedResponse>> caches() {
+        List<Cache<CacheKey, CachedResponse>> caches = new ArrayList<>();
+        caches.add(cache);
+        for (CachePolicy policy : routePolicies.getPolicies()) {
+            if (policy.hasOwnBudget()) {
+                caches.add(policy.getCache());
+            }
+        }
+        if (negativeCache != null) {
+            caches.add(negativeCache.getCache());
+        }
+        return caches;
+    }
+}
@@ -1,57 +1,210 @@
 package com.learn.developer.cache;
 
-import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
 import java.util.Objects;
-import java.util.TreeMap;
-import java.util.stream.Collectors;
 
 import org.springframework.http.HttpHeaders;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
-import org.springframework.web.server.ServerWebExchange;
+import org.springframework.http.server.reactive.ServerHttpRequest;
 
+/**
+ * Cache key made of the request method, the raw path with its query parameters
+ * in a canonical order, and the values of the vary headers. All three parts are
+ * kept in one canonical string and the hash is computed once, so lookups do not
+ * allocate.
+ */
 public final class CacheKey {
-    public static CacheKey from(ServerWebExchange exchange, List<String> varyHeaders) {
-        final String method = Objects.requireNonNull(exchange.getRequest().getMethod()).name();
-        final URI uri = exchange.getRequest().getURI();
-
-        // Normalize query order for stable keys
-        MultiValueMap<String, String> q = new LinkedMultiValueMap<>(exchange.getRequest().getQueryParams());
-        String normalizedQuery = q.entrySet().stream()
-                .sorted(Map.Entry.comparingByKey())
-                .map(e -> e.getValue().stream().sorted().map(v -> e.getKey() + "=" + v)
-                        .collect(Collectors.joining("&")))
-                .filter(s -> !s.isBlank())
-                .collect(Collectors.joining("&"));
-
-        String pathAndQuery = uri.getPath() + (normalizedQuery.isBlank() ? "" : ("?" + normalizedQuery));
-
-        HttpHeaders h = exchange.getRequest().getHeaders();
-        // build case-insensitive map for selected headers
-        TreeMap<String, String> sel = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    /** Exchange attribute holding the key computed for the current request. */
+    public static final String ATTRIBUTE = CacheKey.class.getName();
+
+    private static final char PATH_SEPARATOR = ' ';
+    private static final char VARY_SEPARATOR = '\n';
+    // header values cannot hold a line feed, so no request can forge a partition
+    private static final char PARTITION_SEPARATOR = '\n';
+
+    /** Key of {@code request} with the raw values of {@code varyHeaders}. */
+    public static CacheKey from(ServerHttpRequest request, List<String> varyHeaders) {
+        return from(request, varyHeaders, VaryNormalizer.RAW);
+    }
+
+    /**
+     * Key of {@code request} with the values of {@code varyHeaders}, which must be
+     * normalized with {@link #normalizeVaryHeaders(List)}, mapped by {@code normalizer}.
+     */
+    public static CacheKey from(ServerHttpRequest request, List<String> varyHeaders, VaryNormalizer normalizer) {
+        String method = Objects.requireNonNull(request.getMethod()).name();
+        String rawPath = request.getURI().getRawPath();
+        String rawQuery = request.getURI().getRawQuery();
+
+        StringBuilder sb = new StringBuilder(method.length() + rawPath.length()
+                + (rawQuery == null ? 0 : rawQuery.length() + 1) + 16 * varyHeaders.size());
+        sb.append(method).append(PATH_SEPARATOR).append(rawPath);
+        appendCanonicalQuery(sb, rawQuery);
+        int varyStart = sb.length();
+        sb.append(VARY_SEPARATOR);
+        appendFingerprint(sb, request.getHeaders(), varyHeaders, normalizer);
+        return new CacheKey(sb.toString(), method.length(), varyStart);
+    }
+
+    private static void appendFingerprint(StringBuilder sb, HttpHeaders headers, List<String> varyHeaders,
+            VaryNormalizer normalizer) {
+        boolean first = true;
+        for (String name : varyHeaders) {
+            String v = headers.getFirst(name);
+            if (v != null) {
+                if (!first) {
+                    sb.append('|');
+                }
+                sb.append(name).append(':').append(normalizer.normalize(name, v));
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * Builds a key from its parts, e.g. for admin eviction. {@code pathAndQuery} is
+     * canonicalized like request keys; {@code varyFingerprint} must be in the
+     * {@code name:value|name:value} form produced for requests.
+     */
+    public static CacheKey of(String method, String pathAndQuery, String varyFingerprint) {
+        int q = pathAndQuery.indexOf('?');
+        String path = q < 0 ? pathAndQuery : pathAndQuery.substring(0, q);
+        StringBuilder sb = new StringBuilder(method.length() + pathAndQuery.length() + varyFingerprint.length() + 2);
+        sb.append(method.toUpperCase(Locale.ROOT)).append(PATH_SEPARATOR).append(path);
+        appendCanonicalQuery(sb, q < 0 ? null : pathAndQuery.substring(q + 1));
+        int varyStart = sb.length();
+        sb.append(VARY_SEPARATOR).append(varyFingerprint);
+        return new CacheKey(sb.toString(), method.length(), varyStart);
+    }
+
+    /** Lower-cases, de-duplicates and sorts vary header names once, up front. */
+    public static List<String> normalizeVaryHeaders(List<String> varyHeaders) {
+        List<String> names = new ArrayList<>();
         for (String name : varyHeaders) {
-            String v = h.getFirst(name);
-            if (v != null)
-                sel.put(name.toLowerCase(), v);
+            String n = name.trim().toLowerCase(Locale.ROOT);
+            if (!n.isEmpty() && !names.contains(n)) {
+                names.add(n);
+            }
         }
-        String varyFp = sel.entrySet().stream()
-                .map(e -> e.getKey() + ":" + e.getValue())
-                .collect(Collectors.joining("|"));
+        names.sort(null);
+        return List.copyOf(names);
+    }
 
-        return new CacheKey(method, pathAndQuery, varyFp);
+    // Parameters are sorted by name, then value; '=' sorts before any other
+    // character so that "a=2" comes before "ab=1".
+    private static void appendCanonicalQuery(StringBuilder sb, String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return;
+        }
+        if (rawQuery.indexOf('&') < 0) {
+            sb.append('?').append(rawQuery);
+            return;
+        }
+
+        String[] params = rawQuery.split("&");
+        Arrays.sort(params, CacheKey::compareParams);
+        char sep = '?';
+        for (String p : params) {
+            if (!p.isEmpty()) {
+                sb.append(sep).append(p);
+                sep = '&';
+            }
+        }
+    }
+
+    private static int compareParams(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        for (int i = 0; i < n; i++) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(i);
+            if (ca != cb) {
+                if (ca == '=') {
+                    return -1;
+                }
+                if (cb == '=') {
+                    return 1;
+                }
+                return ca - cb;
+            }
+        }
+        return a.length() - b.length();
     }
 
-    private final String method;
-    private final String pathAndQuery;
+    private final String canonical;
+    private final int methodEnd;
+    private final int varyStart;
+    private final int hash;
 
-    private final String varyHeaderFingerprint;
+    private CacheKey(String canonical, int methodEnd, int varyStart) {
+        this.canonical = canonical;
+        this.methodEnd = methodEnd;
+        this.varyStart = varyStart;
+        this.hash = canonical.hashCode();
+    }
+
+    /** The canonical form, which identifies the key across replicas. */
+    String canonical() {
+        return canonical;
+    }
+
+    /** Identifies the resource, the method and path with query, whatever its variant. */
+    String resourceId() {
+        return canonical.substring(0, varyStart);
+    }
+
+    /** This key without its vary headers: the key shared by every variant of the resource. */
+    CacheKey resource() {
+        return varyStart == canonical.length() - 1
+                ? this
+                : new CacheKey(canonical.substring(0, varyStart + 1), methodEnd, varyStart);
+    }
+
+    /** The variant of this key's resource selected by the request {@code headers} under {@code varyHeaders}. */
+    CacheKey withVary(HttpHeaders headers, List<String> varyHeaders, VaryNormalizer normalizer) {
+        StringBuilder sb = new StringBuilder(varyStart + 1 + 16 * varyHeaders.size());
+        sb.append(canonical, 0, varyStart + 1);
+        appendFingerprint(sb, headers, varyHeaders, normalizer);
+        return new CacheKey(sb.toString(), methodEnd, varyStart);
+    }
+
+    /** This key in the cache partition {@code partition}, a {@link PrincipalPartitions} digest. */
+    CacheKey withPartition(String partition) {
+        int start = canonical.indexOf(PARTITION_SEPARATOR, varyStart + 1);
+        String unpartitioned = start < 0 ? canonical : canonical.substring(0, start);
+        return new CacheKey(unpartitioned + PARTITION_SEPARATOR + partition, methodEnd, varyStart);
+    }
+
+    /** The partition of this key, or {@code null} if it is not partitioned. */
+    String getPartition() {
+        int start = canonical.indexOf(PARTITION_SEPARATOR, varyStart + 1);
+        return start < 0 ? null : canonical.substring(start + 1);
+    }
+
+    /** Estimated bytes of heap retained by this key. */
+    int weight() {
+        return Footprint.align(Footprint.OBJECT_HEADER + Footprint.REFERENCE + 3 * Integer.BYTES)
+                + Footprint.string(canonical);
+    }
+
+    public String getMethod() {
+        return canonical.substring(0, methodEnd);
+    }
+
+    public String getPathAndQuery() {
+        return canonical.substring(methodEnd + 1, varyStart);
+    }
+
+    public String getPath() {
+        int q = canonical.indexOf('?', methodEnd + 1);
+        return canonical.substring(methodEnd + 1, q < 0 || q > varyStart ? varyStart : q);
+    }
 
-    private CacheKey(String method, String pathAndQuery, String varyHeaderFingerprint) {
-        this.method = method;
-        this.pathAndQuery = pathAndQuery;
-        this.varyHeaderFingerprint = varyHeaderFingerprint;
+    /** The vary header values, followed by the partition of a partitioned key. */
+    public String getVaryHeaderFingerprint() {
+        return canonical.substring(varyStart + 1);
     }
 
     @Override
@@ -60,17 +213,16 @@ public final class CacheKey {
             return true;
         if (!(o instanceof CacheKey other))
             return false;
-        return method.equals(other.method) && pathAndQuery.equals(other.pathAndQuery)
-                && varyHeaderFingerprint.equals(other.varyHeaderFingerprint);
+        return hash == other.hash && canonical.equals(other.canonical);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(method, pathAndQuery, varyHeaderFingerprint);
+        return hash;
     }
 
     @Override
     public String toString() {
-        return method + " " + pathAndQuery + " [" + varyHeaderFingerprint + "]";
+        return getMethod() + " " + getPathAndQuery() + " [" + getVaryHeaderFingerprint() + "]";
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,112 @@
+package com.learn.developer.cache;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
+
+/**
+ * Meters of the cache decisions taken by {@link ResponseCacheFilter} for one
+ * route, or for all routes when they are not tagged per route. Every meter is
+ * registered up front, so recording is a field read and an add.
+ */
+final class CacheMetrics {
+
+    /** Why a GET was not answered from, or its response not stored in, the cache. */
+    enum Bypass {
+        NO_CACHE("no-cache"),
+        BYPASS_HEADER("bypass-header"),
+        AUTHORIZATION("authorization"),
+        STATUS("status"),
+        NO_STORE("no-store"),
+        TOO_LARGE("too-large"),
+        OVERFLOW("overflow"),
+        EMPTY("empty"),
+        EXPIRED("expired"),
+        ENCODING("encoding"),
+        ADMISSION("admission"),
+        STORE_FULL("store-full"),
+        VARY_ALL("vary-all"),
+        PRINCIPAL_FULL("principal-full");
+
+        private final String tag;
+
+        Bypass(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    /** Tag value of the meters shared by all routes. */
+    static final String ALL_ROUTES = "all";
+
+    private final Map<Bypass, Counter> bypasses = new EnumMap<>(Bypass.class);
+    private final Timer hits;
+    private final Timer misses;
+    private final Timer stores;
+    private final DistributionSummary captured;
+    private final Counter refreshesAhead;
+
+    CacheMetrics(MeterRegistry registry, String route) {
+        for (Bypass reason : Bypass.values()) {
+            bypasses.put(reason, Counter.builder("gateway.cache.bypass")
+                    .description("GETs not answered from, or not stored in, the cache")
+                    .tag("route", route)
+                    .tag("reason", reason.tag)
+                    .register(registry));
+        }
+        this.hits = Timer.builder("gateway.cache.request.duration")
+                .description("Time to answer a GET, from the filter until the response is written")
+                .tag("route", route)
+                .tag("outcome", "hit")
+                .register(registry);
+        this.misses = Timer.builder("gateway.cache.request.duration")
+                .description("Time to answer a GET, from the filter until the response is written")
+                .tag("route", route)
+                .tag("outcome", "miss")
+                .register(registry);
+        this.stores = Timer.builder("gateway.cache.store.duration")
+                .description("Time to copy a captured body into the body store and insert the entry")
+                .tag("route", route)
+                .register(registry);
+        this.captured = DistributionSummary.builder("gateway.cache.capture.bytes")
+                .description("Bodies captured in full for storing")
+                .baseUnit("bytes")
+                .tag("route", route)
+                .register(registry);
+        this.refreshesAhead = Counter.builder("gateway.cache.refresh.ahead")
+                .description("Background refreshes of hot entries before they expired")
+                .tag("route", route)
+                .register(registry);
+    }
+
+    void bypassed(Bypass reason) {
+        bypasses.get(reason).increment();
+    }
+
+    /** Times an answer from a local tier, started at {@code startNanos}. */
+    Mono<Void> timeHit(Mono<Void> served, long startNanos) {
+        return served.doFinally(signal -> hits.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS));
+    }
+
+    /** Times an answer fetched from a peer or upstream, started at {@code startNanos}. */
+    Mono<Void> timeMiss(Mono<Void> fetched, long startNanos) {
+        return fetched.doFinally(signal -> misses.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS));
+    }
+
+    void recordCaptured(int bytes) {
+        captured.record(bytes);
+    }
+
+    void recordRefreshAhead() {
+        refreshesAhead.increment();
+    }
+
+    void recordStore(long startNanos) {
+        stores.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,219 @@
+package com.learn.developer.cache;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ServerWebExchange;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.PrematureCloseException;
+
+/**
+ * Peer mode: every cache key is owned by one replica, chosen on a
+ * {@link HashRing}, so the cluster keeps one copy of each entry and the upstream
+ * sees one miss per key rather than one per replica. A miss for a key owned by
+ * a peer is forwarded to it over HTTP and its response streamed back without
+ * being stored here; the peer serves the request from its cache or fetches it
+ * upstream like any other request.
+ * <p>
+ * Forwarded requests carry {@value #PEER_HEADER}, and a replica always serves
+ * those itself, so replicas that disagree on membership cannot forward in a
+ * loop. When a peer cannot be connected to in time, the request goes upstream
+ * directly and the peer is skipped for {@code retry-after}. An owner that is
+ * slow to answer, typically because it is waiting on the upstream itself, is
+ * given up on after {@code response-timeout} but stays in the ring.
+ */
+public final class CachePeers {
+
+    private static final Logger log = LoggerFactory.getLogger(CachePeers.class);
+
+    /** Request header marking a request forwarded by a peer; holds the sender's URL. */
+    public static final String PEER_HEADER = "X-Cache-Peer";
+
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "keep-alive", "proxy-authenticate",
+            "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade");
+
+    private final String self;
+    private final int virtualNodes;
+    private final Duration retryAfter;
+    private final WebClient client;
+    private final Map<String, Long> downUntil = new ConcurrentHashMap<>(); // System.nanoTime()
+    private volatile HashRing ring;
+
+    private final Counter forwarded;
+    private final Counter failed;
+
+    public CachePeers(CacheProperties.Peers props, MeterRegistry registry) {
+        if (props.getSelf() == null || props.getSelf().isBlank()) {
+            throw new IllegalArgumentException("gateway.cache.peers.self is required in peer mode");
+        }
+        this.self = normalize(props.getSelf());
+        this.virtualNodes = props.getVirtualNodes();
+        this.retryAfter = props.getRetryAfter();
+        HttpClient http = HttpClient.create()
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) props.getTimeout().toMillis())
+                .responseTimeout(props.getResponseTimeout());
+        this.client = WebClient.builder().clientConnector(new ReactorClientHttpConnector(http)).build();
+        this.forwarded = requests(registry, "forwarded");
+        this.failed = requests(registry, "failed");
+        setMembers(props.getMembers());
+    }
+
+    private static Counter requests(MeterRegistry registry, String outcome) {
+        return Counter.builder("gateway.cache.peer.requests")
+                .description("Misses for keys owned by a peer, by outcome")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private static String normalize(String url) {
+        String u = url.trim();
+        return u.endsWith("/") ? u.substring(0, u.length() - 1) : u;
+    }
+
+    /** Replaces the members, e.g. from a discovery source; this replica is always one. */
+    public void setMembers(List<String> members) {
+        List<String> normalized = new ArrayList<>();
+        for (String member : members) {
+            String m = normalize(member);
+            if (!m.isEmpty() && !normalized.contains(m)) {
+                normalized.add(m);
+            }
+        }
+        if (!normalized.contains(self)) {
+            normalized.add(self);
+        }
+        ring = new HashRing(normalized, virtualNodes);
+    }
+
+    public List<String> getMembers() {
+        return ring.getMembers();
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    /**
+     * The peer to forward a miss for {@code key} to, or null to handle it here:
+     * when this replica owns the key, the request came from a peer, or the owner
+     * failed recently.
+     */
+    public String ownerOf(ServerHttpRequest request, CacheKey key) {
+        if (isFromPeer(request)) {
+            return null;
+        }
+        String owner = ring.ownerOf(key);
+        if (owner.equals(self)) {
+            return null;
+        }
+        Long until = downUntil.get(owner);
+        if (until != null) {
+            if (System.nanoTime() - until < 0) {
+                return null;
+            }
+            downUntil.remove(owner, until);
+        }
+        return owner;
+    }
+
+    public static boolean isFromPeer(ServerHttpRequest request) {
+        return request.getHeaders().containsHeader(PEER_HEADER);
+    }
+
+    /** The exchange without {@value #PEER_HEADER}, which is not sent upstream. */
+    static ServerWebExchange withoutPeerHeader(ServerWebExchange exchange) {
+        return exchange.mutate().request(r -> r.headers(h -> h.remove(PEER_HEADER))).build();
+    }
+
+    /**
+     * Answers the request with the response of {@code owner}. Fails without
+     * touching the exchange when the peer cannot be reached or does not answer in
+     * time, so the caller can still route the request upstream.
+     */
+    Mono<Void> forward(ServerWebExchange exchange, String owner) {
+        ServerHttpRequest request = exchange.getRequest();
+        String rawQuery = request.getURI().getRawQuery();
+        URI uri = URI.create(owner + request.getURI().getRawPath() + (rawQuery == null ? "" : "?" + rawQuery));
+        return client.get()
+                .uri(uri)
+                .headers(h -> {
+                    request.getHeaders().forEach((name, values) -> {
+                        if (!isHopByHop(name) && !name.equalsIgnoreCase(HttpHeaders.HOST)
+                                && !name.equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH)) {
+                            h.put(name, values);
+                        }
+                    });
+                    h.set(PEER_HEADER, self);
+                })
+                .exchangeToMono(peerResponse -> {
+                    forwarded.increment();
+                    ServerHttpResponse response = exchange.getResponse();
+                    response.setStatusCode(peerResponse.statusCode());
+                    HttpHeaders out = response.getHeaders();
+                    peerResponse.headers().asHttpHeaders().forEach((name, values) -> {
+                        if (!isHopByHop(name)) {
+                            out.put(name, values);
+                        }
+                    });
+                    String outcome = out.getFirst(ResponseCacheFilter.X_CACHE);
+                    if (outcome != null) {
+                        out.set(ResponseCacheFilter.X_CACHE, outcome + "-PEER");
+                    }
+                    // as for answers from the cache, the request body is not routed anywhere
+                    return request.getBody()
+                            .doOnNext(DataBufferUtils::release)
+                            .then(response.writeWith(peerResponse.bodyToFlux(DataBuffer.class)));
+                });
+    }
+
+    private static boolean isHopByHop(String header) {
+        return HOP_BY_HOP.contains(header.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Records that {@code owner} failed to answer, and skips it for
+     * {@code retry-after} if it could not be reached at all.
+     */
+    void failed(String owner, Throwable cause) {
+        failed.increment();
+        if (!isUnreachable(cause)) {
+            log.debug("Cache peer {} did not answer, going upstream directly: {}", owner, cause.toString());
+            return;
+        }
+        downUntil.put(owner, System.nanoTime() + retryAfter.toNanos());
+        log.warn("Cache peer {} failed, going upstream directly for {}: {}", owner, retryAfter, cause.toString());
+    }
+
+    // refused or timed-out connections and connections closed before any response
+    private static boolean isUnreachable(Throwable cause) {
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException || t instanceof UnknownHostException
+                    || t instanceof PrematureCloseException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
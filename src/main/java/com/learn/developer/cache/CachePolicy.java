@@ -0,0 +1,147 @@
+package com.learn.developer.cache;
+
+import java.time.Duration;
+import java.util.List;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * How responses of a route are cached: their TTL, body limit, vary headers and
+ * Authorization rule, and the cache holding them, which is either the shared one
+ * or a route's own weight budget. Routes without a {@code ResponseCache} filter
+ * use the default policy built from {@link CacheProperties}.
+ */
+public final class CachePolicy {
+
+    /** Exchange attribute holding the policy of the route being served. */
+    public static final String ATTRIBUTE = CachePolicy.class.getName();
+
+    /** Route tag of the default policy, which is shared by the routes without one. */
+    public static final String DEFAULT_ROUTE = "default";
+
+    private final String routeId;
+    private final Duration ttl;
+    private final int maxBodyBytes;
+    private final List<String> varyHeaders;
+    private final boolean skipWhenAuthorization;
+    private final boolean compression;
+    private final Cache<CacheKey, CachedResponse> cache;
+    private final boolean ownBudget;
+    private final Counter hits;
+    private final Counter misses;
+    private final DistributionSummary entrySizes;
+    private final CacheMetrics metrics;
+
+    CachePolicy(String routeId, Duration ttl, int maxBodyBytes, List<String> varyHeaders,
+            boolean skipWhenAuthorization, boolean compression, Cache<CacheKey, CachedResponse> cache,
+            boolean ownBudget, boolean perRouteMetrics, MeterRegistry registry) {
+        this.routeId = routeId;
+        this.ttl = ttl;
+        this.maxBodyBytes = maxBodyBytes;
+        this.compression = compression;
+        this.varyHeaders = keyHeaders(varyHeaders);
+        this.skipWhenAuthorization = skipWhenAuthorization;
+        this.cache = cache;
+        this.ownBudget = ownBudget;
+        this.hits = requests(registry, routeId, "hit");
+        this.misses = requests(registry, routeId, "miss");
+        this.entrySizes = DistributionSummary.builder("gateway.cache.route.entry.size")
+                .description("Estimated bytes held by each stored entry")
+                .baseUnit("bytes")
+                .tag("route", routeId)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(256.0)
+                .maximumExpectedValue(64.0 * 1024 * 1024)
+                .register(registry);
+        this.metrics = new CacheMetrics(registry, perRouteMetrics ? routeId : CacheMetrics.ALL_ROUTES);
+    }
+
+    private static Counter requests(MeterRegistry registry, String routeId, String result) {
+        return Counter.builder("gateway.cache.route.requests")
+                .tag("route", routeId)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    public String getRouteId() {
+        return routeId;
+    }
+
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    public int getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    /** Normalized with {@link CacheKey#normalizeVaryHeaders(List)}. */
+    public List<String> getVaryHeaders() {
+        return varyHeaders;
+    }
+
+    /** The headers of {@code varyHeaders} that select a variant in this policy's cache, normalized. */
+    List<String> keyHeaders(List<String> varyHeaders) {
+        List<String> vary = CacheKey.normalizeVaryHeaders(varyHeaders);
+        if (vary.contains("authorization") || (compression && vary.contains("accept-encoding"))) {
+            // credentials never enter a key, and every client is served from the one
+            // gzip copy, inflated when needed
+            vary = vary.stream()
+                    .filter(h -> !h.equals("authorization") && !(compression && h.equals("accept-encoding")))
+                    .toList();
+        }
+        return vary;
+    }
+
+    public boolean isSkipWhenAuthorization() {
+        return skipWhenAuthorization;
+    }
+
+    public Cache<CacheKey, CachedResponse> getCache() {
+        return cache;
+    }
+
+    /** Whether the cache is the route's own weight budget rather than the shared one. */
+    public boolean hasOwnBudget() {
+        return ownBudget;
+    }
+
+    /**
+     * Freshness lifetime to store for a response whose upstream gave
+     * {@code upstreamSeconds} (-1 for none): capped by the TTL, which is also used
+     * when the upstream gave none.
+     */
+    public long lifetimeSeconds(long upstreamSeconds) {
+        long ttlSeconds = ttl.getSeconds();
+        return upstreamSeconds < 0 || upstreamSeconds >= ttlSeconds ? ttlSeconds : upstreamSeconds;
+    }
+
+    /** Meters of the decisions taken for this route. */
+    CacheMetrics metrics() {
+        return metrics;
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    void recordMiss() {
+        misses.increment();
+    }
+
+    void recordStored(CacheKey key, CachedResponse value) {
+        entrySizes.record(CacheConfig.weight(key, value));
+    }
+
+    public long getHitCount() {
+        return (long) hits.count();
+    }
+
+    public long getMissCount() {
+        return (long) misses.count();
+    }
+}
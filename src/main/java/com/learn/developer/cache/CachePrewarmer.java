@@ -0,0 +1,219 @@
+package com.learn.developer.cache;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Fills the cache once the gateway is up by sending it GETs for the configured
+ * URLs and for the keys that were hottest when the previous run stopped, a few
+ * at a time. The requests go through the whole filter chain, so they are routed,
+ * coalesced and stored like any client's. On shutdown the hottest keys of every
+ * cache are saved for the next run.
+ */
+public final class CachePrewarmer implements SmartLifecycle, ApplicationListener<ApplicationReadyEvent> {
+
+    private static final Logger log = LoggerFactory.getLogger(CachePrewarmer.class);
+
+    private static final char FINGERPRINT_SEPARATOR = '\t';
+
+    private final CachePolicy defaultPolicy;
+    private final ResponseCacheGatewayFilterFactory routePolicies;
+    private final CacheProperties.Prewarm props;
+    private final Path keysFile;
+    private final WebClient client = WebClient.create();
+    private final Counter warmed;
+    private final Counter failed;
+
+    private volatile boolean running;
+    private volatile Disposable warming;
+
+    public CachePrewarmer(CachePolicy defaultPolicy, ResponseCacheGatewayFilterFactory routePolicies,
+            CacheProperties.Prewarm props, MeterRegistry registry) {
+        this.defaultPolicy = defaultPolicy;
+        this.routePolicies = routePolicies;
+        this.props = props;
+        this.keysFile = Path.of(props.getKeysFile());
+        this.warmed = requests(registry, "warmed");
+        this.failed = requests(registry, "failed");
+    }
+
+    private static Counter requests(MeterRegistry registry, String outcome) {
+        return Counter.builder("gateway.cache.prewarm.requests")
+                .description("Prewarm requests by outcome")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        Integer port = event.getApplicationContext().getEnvironment().getProperty("local.server.port", Integer.class);
+        if (port == null) {
+            log.warn("Not prewarming the cache: the gateway has no local server port");
+            return;
+        }
+        List<CacheKey> keys = keys();
+        long start = System.nanoTime();
+        warming = prewarm(URI.create("http://127.0.0.1:" + port), keys)
+                .subscribe(n -> log.info("Prewarmed {} of {} cache keys in {} ms", n, keys.size(),
+                        (System.nanoTime() - start) / 1_000_000));
+    }
+
+    /** Requests every key from the gateway at {@code base}; emits how many were answered. */
+    Mono<Long> prewarm(URI base, List<CacheKey> keys) {
+        return Flux.fromIterable(keys)
+                .flatMap(key -> send(base, key), Math.max(1, props.getConcurrency()))
+                .filter(ok -> ok)
+                .count();
+    }
+
+    private Mono<Boolean> send(URI base, CacheKey key) {
+        return Mono.defer(() -> client.get()
+                        .uri(base.resolve(key.getPathAndQuery()))
+                        .headers(h -> addVaryHeaders(h, key.getVaryHeaderFingerprint()))
+                        .retrieve()
+                        .toBodilessEntity())
+                .timeout(props.getTimeout())
+                .map(response -> {
+                    warmed.increment();
+                    return true;
+                })
+                .onErrorResume(e -> {
+                    failed.increment();
+                    log.debug("Could not prewarm {}", key, e);
+                    return Mono.just(false);
+                });
+    }
+
+    // the fingerprint lists the request's vary headers as name:value|name:value
+    private static void addVaryHeaders(HttpHeaders headers, String fingerprint) {
+        for (String pair : fingerprint.split("\\|")) {
+            int colon = pair.indexOf(':');
+            if (colon > 0) {
+                headers.set(pair.substring(0, colon), pair.substring(colon + 1));
+            }
+        }
+    }
+
+    /** The configured URLs, then the keys saved by the previous run, without repeats. */
+    List<CacheKey> keys() {
+        Set<CacheKey> keys = new LinkedHashSet<>();
+        for (String url : props.getUrls()) {
+            keys.add(CacheKey.of("GET", url, ""));
+        }
+        if (props.getTopKeys() > 0) {
+            try {
+                keys.addAll(readKeys(keysFile));
+            } catch (IOException e) {
+                log.warn("Could not read the prewarm keys {}", keysFile, e);
+            }
+        }
+        return new ArrayList<>(keys);
+    }
+
+    /**
+     * The hottest GET keys of the default cache and of every route with its own
+     * budget, leaving out authorized requests, which could not be replayed.
+     */
+    List<CacheKey> hottestKeys() {
+        List<Cache<CacheKey, CachedResponse>> caches = new ArrayList<>();
+        caches.add(defaultPolicy.getCache());
+        for (CachePolicy policy : routePolicies.getPolicies()) {
+            if (policy.hasOwnBudget()) {
+                caches.add(policy.getCache());
+            }
+        }
+        List<CacheKey> keys = new ArrayList<>();
+        for (Cache<CacheKey, CachedResponse> cache : caches) {
+            cache.policy().eviction().ifPresent(eviction -> eviction.hottest(props.getTopKeys()).keySet().stream()
+                    .filter(key -> key.getMethod().equals("GET") && key.getPartition() == null)
+                    .forEach(keys::add));
+        }
+        return keys;
+    }
+
+    static List<CacheKey> readKeys(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return List.of();
+        }
+        List<CacheKey> keys = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            int separator = line.indexOf(FINGERPRINT_SEPARATOR);
+            if (separator > 0) {
+                keys.add(CacheKey.of("GET", line.substring(0, separator), line.substring(separator + 1)));
+            }
+        }
+        return keys;
+    }
+
+    /** Replaces {@code file} atomically with one line per key. */
+    static void writeKeys(Path file, Collection<CacheKey> keys) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        List<String> lines = new ArrayList<>(keys.size());
+        for (CacheKey key : keys) {
+            lines.add(key.getPathAndQuery() + FINGERPRINT_SEPARATOR + key.getVaryHeaderFingerprint());
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        Disposable current = warming;
+        if (current != null) {
+            current.dispose();
+        }
+        if (props.getTopKeys() > 0) {
+            try {
+                writeKeys(keysFile, hottestKeys());
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not write the prewarm keys {}", keysFile, e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Stops after the web server, so the saved keys reflect every request. */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+}
@@ -1,7 +1,9 @@
 package com.learn.developer.cache;
 
 import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
@@ -19,6 +21,614 @@ public class CacheProperties {
         }
     }
 
+    public static class Coalescing {
+        private boolean enabled = true;
+        private Duration maxWait = Duration.ofSeconds(10); // followers fall back to upstream after this
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getMaxWait() {
+            return maxWait;
+        }
+
+        public void setMaxWait(Duration maxWait) {
+            this.maxWait = maxWait;
+        }
+    }
+
+    public static class Stale {
+        private Duration whileRevalidate = Duration.ZERO; // used when the response has no stale-while-revalidate
+        private Duration ifError = Duration.ZERO; // used when the response has no stale-if-error
+        private Duration upstreamTimeout = Duration.ofSeconds(5); // serve stale-if-error after this
+        private Duration revalidateTimeout = Duration.ofSeconds(30);
+
+        public Duration getWhileRevalidate() {
+            return whileRevalidate;
+        }
+
+        public void setWhileRevalidate(Duration whileRevalidate) {
+            this.whileRevalidate = whileRevalidate;
+        }
+
+        public Duration getIfError() {
+            return ifError;
+        }
+
+        public void setIfError(Duration ifError) {
+            this.ifError = ifError;
+        }
+
+        public Duration getUpstreamTimeout() {
+            return upstreamTimeout;
+        }
+
+        public void setUpstreamTimeout(Duration upstreamTimeout) {
+            this.upstreamTimeout = upstreamTimeout;
+        }
+
+        public Duration getRevalidateTimeout() {
+            return revalidateTimeout;
+        }
+
+        public void setRevalidateTimeout(Duration revalidateTimeout) {
+            this.revalidateTimeout = revalidateTimeout;
+        }
+    }
+
+    public static class OffHeap {
+        private boolean enabled = false; // keep bodies in direct memory, sized by maxWeightBytes
+        private int slabBytes = 4 * 1024 * 1024; // must be a power of two >= maxBodyBytes
+        private int minChunkBytes = 1024; // smallest size class, power of two
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getSlabBytes() {
+            return slabBytes;
+        }
+
+        public void setSlabBytes(int slabBytes) {
+            this.slabBytes = slabBytes;
+        }
+
+        public int getMinChunkBytes() {
+            return minChunkBytes;
+        }
+
+        public void setMinChunkBytes(int minChunkBytes) {
+            this.minChunkBytes = minChunkBytes;
+        }
+    }
+
+    public static class Snapshot {
+        private boolean enabled = false; // reload the cache from disk after a restart
+        private String path = "data/response-cache.snapshot";
+        private Duration interval = Duration.ofMinutes(1); // zero writes only on shutdown
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+    }
+
+    public static class Disk {
+        private boolean enabled = false; // demote entries evicted for size to local disk
+        private String directory = "data/l2";
+        private long maxBytes = 1024L * 1024 * 1024; // 1 GiB
+        private long segmentBytes = 64 * 1024 * 1024;
+        private double compactionThreshold = 0.5; // rewrite sealed segments below this live ratio
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public void setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        public long getSegmentBytes() {
+            return segmentBytes;
+        }
+
+        public void setSegmentBytes(long segmentBytes) {
+            this.segmentBytes = segmentBytes;
+        }
+
+        public double getCompactionThreshold() {
+            return compactionThreshold;
+        }
+
+        public void setCompactionThreshold(double compactionThreshold) {
+            this.compactionThreshold = compactionThreshold;
+        }
+    }
+
+    public static class Compression {
+        private boolean enabled = false; // store bodies gzipped and drop Accept-Encoding from the key
+        private int minBytes = 1024; // smaller bodies are stored as they are
+        private int level = 6; // 1 (fastest) to 9 (smallest)
+        private List<String> mimeTypes = List.of("text/*", "application/json", "application/*+json",
+                "application/javascript", "application/xml", "application/*+xml");
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMinBytes() {
+            return minBytes;
+        }
+
+        public void setMinBytes(int minBytes) {
+            this.minBytes = minBytes;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public void setLevel(int level) {
+            this.level = level;
+        }
+
+        public List<String> getMimeTypes() {
+            return mimeTypes;
+        }
+
+        public void setMimeTypes(List<String> mimeTypes) {
+            this.mimeTypes = mimeTypes;
+        }
+    }
+
+    public static class Cluster {
+        private boolean enabled = false; // propagate invalidations to the other replicas
+        private String transport = "multicast"; // or loopback: in-process only, for tests
+        private Duration batchInterval = Duration.ofMillis(50); // invalidations are coalesced this long
+        private int maxBatch = 256; // a full batch is sent right away
+        private int maxMessageBytes = 1400; // larger batches are split, to stay within one datagram
+        private String sharedKey = ""; // signs messages (HMAC-SHA256); required, the same on every replica
+        private String group = "239.255.42.99";
+        private int port = 45565;
+        private String networkInterface = ""; // empty picks the first multicast-capable one
+        private int timeToLive = 1; // 1 keeps datagrams on the local network
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getTransport() {
+            return transport;
+        }
+
+        public void setTransport(String transport) {
+            this.transport = transport;
+        }
+
+        public Duration getBatchInterval() {
+            return batchInterval;
+        }
+
+        public void setBatchInterval(Duration batchInterval) {
+            this.batchInterval = batchInterval;
+        }
+
+        public int getMaxBatch() {
+            return maxBatch;
+        }
+
+        public void setMaxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+        }
+
+        public int getMaxMessageBytes() {
+            return maxMessageBytes;
+        }
+
+        public void setMaxMessageBytes(int maxMessageBytes) {
+            this.maxMessageBytes = maxMessageBytes;
+        }
+
+        public String getSharedKey() {
+            return sharedKey;
+        }
+
+        public void setSharedKey(String sharedKey) {
+            this.sharedKey = sharedKey;
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public void setGroup(String group) {
+            this.group = group;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public String getNetworkInterface() {
+            return networkInterface;
+        }
+
+        public void setNetworkInterface(String networkInterface) {
+            this.networkInterface = networkInterface;
+        }
+
+        public int getTimeToLive() {
+            return timeToLive;
+        }
+
+        public void setTimeToLive(int timeToLive) {
+            this.timeToLive = timeToLive;
+        }
+    }
+
+    public static class Peers {
+        private boolean enabled = false; // shard keys across replicas; misses ask the owning replica
+        private String self = ""; // this replica's base URL, as listed in members
+        private List<String> members = List.of(); // base URLs of all replicas
+        private int virtualNodes = 160; // ring points per member
+        private Duration timeout = Duration.ofMillis(500); // to connect; then go upstream directly
+        private Duration responseTimeout = Duration.ofSeconds(30); // the owner may be fetching upstream itself
+        private Duration retryAfter = Duration.ofSeconds(10); // an unreachable peer is skipped this long
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getSelf() {
+            return self;
+        }
+
+        public void setSelf(String self) {
+            this.self = self;
+        }
+
+        public List<String> getMembers() {
+            return members;
+        }
+
+        public void setMembers(List<String> members) {
+            this.members = members;
+        }
+
+        public int getVirtualNodes() {
+            return virtualNodes;
+        }
+
+        public void setVirtualNodes(int virtualNodes) {
+            this.virtualNodes = virtualNodes;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        public Duration getResponseTimeout() {
+            return responseTimeout;
+        }
+
+        public void setResponseTimeout(Duration responseTimeout) {
+            this.responseTimeout = responseTimeout;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        public void setRetryAfter(Duration retryAfter) {
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    public static class Admission {
+        private boolean enabled = false; // store a response only once its key missed min-hits times
+        private int minHits = 2; // 1 to 16
+        private Duration window = Duration.ofMinutes(10); // miss counts are halved this often; zero: by volume only
+        private long memoryBytes = 1024 * 1024; // fixed size of the frequency sketch
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMinHits() {
+            return minHits;
+        }
+
+        public void setMinHits(int minHits) {
+            this.minHits = minHits;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        public long getMemoryBytes() {
+            return memoryBytes;
+        }
+
+        public void setMemoryBytes(long memoryBytes) {
+            this.memoryBytes = memoryBytes;
+        }
+    }
+
+    public static class RefreshAhead {
+        private boolean enabled = false; // refresh hot entries in the background before they expire
+        private double fraction = 0.2; // refresh in the last 20% of the freshness lifetime
+        private int minReads = 3; // reads of the entry that make it hot
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getFraction() {
+            return fraction;
+        }
+
+        public void setFraction(double fraction) {
+            this.fraction = fraction;
+        }
+
+        public int getMinReads() {
+            return minReads;
+        }
+
+        public void setMinReads(int minReads) {
+            this.minReads = minReads;
+        }
+    }
+
+    public static class Prewarm {
+        private boolean enabled = false; // fill the cache from the sources below once the gateway is up
+        private List<String> urls = List.of(); // paths with query, e.g. /users/1?fields=id
+        private int topKeys = 0; // hottest keys saved on shutdown and prewarmed on the next start; 0: off
+        private String keysFile = "data/prewarm-keys.txt";
+        private int concurrency = 4;
+        private Duration timeout = Duration.ofSeconds(10); // per request
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public List<String> getUrls() {
+            return urls;
+        }
+
+        public void setUrls(List<String> urls) {
+            this.urls = urls;
+        }
+
+        public int getTopKeys() {
+            return topKeys;
+        }
+
+        public void setTopKeys(int topKeys) {
+            this.topKeys = topKeys;
+        }
+
+        public String getKeysFile() {
+            return keysFile;
+        }
+
+        public void setKeysFile(String keysFile) {
+            this.keysFile = keysFile;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public void setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    public static class Vary {
+        private boolean fromResponse = true; // key variants by the upstream's Vary; vary-headers until it is seen
+        private long maxResources = 100_000; // resources whose Vary is remembered
+        private List<String> languages = List.of(); // Accept-Language is keyed by the best of these
+        private List<String> mediaTypes = List.of(); // Accept is keyed by the best of these
+        private boolean encodingClasses = false; // Accept-Encoding is keyed as br, gzip or identity
+
+        public boolean isFromResponse() {
+            return fromResponse;
+        }
+
+        public void setFromResponse(boolean fromResponse) {
+            this.fromResponse = fromResponse;
+        }
+
+        public long getMaxResources() {
+            return maxResources;
+        }
+
+        public void setMaxResources(long maxResources) {
+            this.maxResources = maxResources;
+        }
+
+        public List<String> getLanguages() {
+            return languages;
+        }
+
+        public void setLanguages(List<String> languages) {
+            this.languages = languages;
+        }
+
+        public List<String> getMediaTypes() {
+            return mediaTypes;
+        }
+
+        public void setMediaTypes(List<String> mediaTypes) {
+            this.mediaTypes = mediaTypes;
+        }
+
+        public boolean isEncodingClasses() {
+            return encodingClasses;
+        }
+
+        public void setEncodingClasses(boolean encodingClasses) {
+            this.encodingClasses = encodingClasses;
+        }
+    }
+
+    public static class Authorized {
+        private boolean enabled = false; // cache requests with Authorization, per principal, instead of skipping them
+        private long maxWeightPerPrincipal = 4 * 1024 * 1024; // private entries of one principal
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaxWeightPerPrincipal() {
+            return maxWeightPerPrincipal;
+        }
+
+        public void setMaxWeightPerPrincipal(long maxWeightPerPrincipal) {
+            this.maxWeightPerPrincipal = maxWeightPerPrincipal;
+        }
+    }
+
+    public static class Negative {
+        private boolean enabled = false; // cache the statuses below apart from real content
+        private Map<Integer, Duration> ttls = new LinkedHashMap<>(Map.of(
+                404, Duration.ofSeconds(30),
+                410, Duration.ofMinutes(5),
+                301, Duration.ofMinutes(10),
+                308, Duration.ofMinutes(10))); // cap the upstream's freshness per status
+        private long maxWeightBytes = 8 * 1024 * 1024; // budget of the negative entries
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Map<Integer, Duration> getTtls() {
+            return ttls;
+        }
+
+        public void setTtls(Map<Integer, Duration> ttls) {
+            this.ttls = ttls;
+        }
+
+        public long getMaxWeightBytes() {
+            return maxWeightBytes;
+        }
+
+        public void setMaxWeightBytes(long maxWeightBytes) {
+            this.maxWeightBytes = maxWeightBytes;
+        }
+    }
+
+    public static class Metrics {
+        private boolean perRoute = false; // tag decision meters by route instead of route=all
+
+        public boolean isPerRoute() {
+            return perRoute;
+        }
+
+        public void setPerRoute(boolean perRoute) {
+            this.perRoute = perRoute;
+        }
+    }
+
     private boolean enabled = true;
     private Duration ttl = Duration.ofSeconds(60);
     private long maxWeightBytes = 100 * 1024 * 1024; // 100 MiB
@@ -27,8 +637,24 @@ public class CacheProperties {
     private boolean skipWhenAuthorization = true;
     private boolean addXcacheHeader = true;
     private boolean addAgeHeader = true;
+    private boolean invalidateOnWrite = true; // successful unsafe requests purge the URIs they affect
 
     private Admin admin = new Admin();
+    private Coalescing coalescing = new Coalescing();
+    private Stale stale = new Stale();
+    private OffHeap offHeap = new OffHeap();
+    private Snapshot snapshot = new Snapshot();
+    private Disk disk = new Disk();
+    private Compression compression = new Compression();
+    private Cluster cluster = new Cluster();
+    private Peers peers = new Peers();
+    private Admission admission = new Admission();
+    private Metrics metrics = new Metrics();
+    private RefreshAhead refreshAhead = new RefreshAhead();
+    private Prewarm prewarm = new Prewarm();
+    private Vary vary = new Vary();
+    private Authorized authorized = new Authorized();
+    private Negative negative = new Negative();
 
     public boolean isEnabled() {
         return enabled;
@@ -94,6 +720,14 @@ public class CacheProperties {
         this.addAgeHeader = addAgeHeader;
     }
 
+    public boolean isInvalidateOnWrite() {
+        return invalidateOnWrite;
+    }
+
+    public void setInvalidateOnWrite(boolean invalidateOnWrite) {
+        this.invalidateOnWrite = invalidateOnWrite;
+    }
+
     public Admin getAdmin() {
         return admin;
     }
@@ -101,4 +735,124 @@ public class CacheProperties {
     public void setAdmin(Admin admin) {
         this.admin = admin;
     }
-}
\ No newline at end of file
+
+    public Coalescing getCoalescing() {
+        return coalescing;
+    }
+
+    public void setCoalescing(Coalescing coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    public Stale getStale() {
+        return stale;
+    }
+
+    public void setStale(Stale stale) {
+        this.stale = stale;
+    }
+
+    public OffHeap getOffHeap() {
+        return offHeap;
+    }
+
+    public void setOffHeap(OffHeap offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public Disk getDisk() {
+        return disk;
+    }
+
+    public void setDisk(Disk disk) {
+        this.disk = disk;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public void setCluster(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    public Peers getPeers() {
+        return peers;
+    }
+
+    public void setPeers(Peers peers) {
+        this.peers = peers;
+    }
+
+    public Admission getAdmission() {
+        return admission;
+    }
+
+    public void setAdmission(Admission admission) {
+        this.admission = admission;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public RefreshAhead getRefreshAhead() {
+        return refreshAhead;
+    }
+
+    public void setRefreshAhead(RefreshAhead refreshAhead) {
+        this.refreshAhead = refreshAhead;
+    }
+
+    public Prewarm getPrewarm() {
+        return prewarm;
+    }
+
+    public void setPrewarm(Prewarm prewarm) {
+        this.prewarm = prewarm;
+    }
+
+    public Vary getVary() {
+        return vary;
+    }
+
+    public void setVary(Vary vary) {
+        this.vary = vary;
+    }
+
+    public Authorized getAuthorized() {
+        return authorized;
+    }
+
+    public void setAuthorized(Authorized authorized) {
+        this.authorized = authorized;
+    }
+
+    public Negative getNegative() {
+        return negative;
+    }
+
+    public void setNegative(Negative negative) {
+        this.negative = negative;
+    }
+}
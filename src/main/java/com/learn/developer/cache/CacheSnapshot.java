@@ -0,0 +1,255 @@
+package com.learn.developer.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Persists the response cache to a snapshot file so a restarted gateway starts
+ * warm. The cache is written periodically and on shutdown to a temporary file
+ * that atomically replaces the previous snapshot; on startup the snapshot is
+ * memory-mapped and entries that can still be served are loaded in the
+ * background, so startup is not blocked. The resources of restored entries are
+ * keyed again by the headers their {@code Vary} names.
+ * <p>
+ * Each record carries its length and a CRC32 of its contents. Records whose
+ * checksum does not match are skipped, and a truncated tail ends the load.
+ */
+public final class CacheSnapshot implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheSnapshot.class);
+
+    private static final int MAGIC = 0x47574353; // "GWCS"
+    private static final int VERSION = 2; // 2: max-age is stored capped by the route TTL
+
+    private final Cache<CacheKey, CachedResponse> cache;
+    private final CachePolicy policy;
+    private final ResponseExpiry expiry;
+    private final BodyStore bodyStore;
+    private final InvalidationIndex invalidationIndex;
+    private final VaryIndex varyIndex;
+    private final Path path;
+    private final Duration interval;
+    private final int maxBodyBytes;
+
+    private final Counter written;
+    private final Counter loaded;
+    private final Counter expired;
+    private final Counter corrupt;
+
+    private volatile boolean running;
+    private Disposable schedule;
+
+    /** Snapshots the cache of {@code policy}; {@code varyIndex} may be null. */
+    public CacheSnapshot(CachePolicy policy, ResponseExpiry expiry, BodyStore bodyStore,
+            InvalidationIndex invalidationIndex, VaryIndex varyIndex, CacheProperties props, MeterRegistry registry) {
+        this.cache = policy.getCache();
+        this.policy = policy;
+        this.expiry = expiry;
+        this.bodyStore = bodyStore;
+        this.invalidationIndex = invalidationIndex;
+        this.varyIndex = varyIndex;
+        this.path = Path.of(props.getSnapshot().getPath());
+        this.interval = props.getSnapshot().getInterval();
+        this.maxBodyBytes = props.getMaxBodyBytes();
+        this.written = counter(registry, "written");
+        this.loaded = counter(registry, "loaded");
+        this.expired = counter(registry, "expired");
+        this.corrupt = counter(registry, "corrupt");
+    }
+
+    private static Counter counter(MeterRegistry registry, String outcome) {
+        return Counter.builder("gateway.cache.snapshot.entries")
+                .description("Snapshot records by outcome")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        Schedulers.boundedElastic().schedule(this::loadQuietly);
+        if (!interval.isZero() && !interval.isNegative()) {
+            long millis = interval.toMillis();
+            schedule = Schedulers.boundedElastic().schedulePeriodically(this::writeQuietly, millis, millis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (schedule != null) {
+            schedule.dispose();
+        }
+        writeQuietly();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Starts before and stops after the web server, so the final snapshot sees every response. */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    private void loadQuietly() {
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not load cache snapshot {}", path, e);
+        }
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not write cache snapshot {}", path, e);
+        }
+    }
+
+    /**
+     * Writes every entry that can still be served, except principals' private
+     * ones; returns the number of records.
+     */
+    public synchronized int write() throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        int count = 0;
+        try (FileChannel file = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(file), 64 * 1024);
+            WritableByteChannel channel = Channels.newChannel(out);
+            ByteBuffer header = ByteBuffer.allocate(EntryRecord.HEADER_BYTES);
+
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.write(header);
+
+            for (Map.Entry<CacheKey, CachedResponse> e : cache.asMap().entrySet()) {
+                CachedResponse value = e.getValue();
+                if (PrincipalPartitions.isPrivate(e.getKey()) || expiry.expireAfterCreate(e.getKey(), value, 0) <= 0
+                        || !value.retain()) {
+                    continue;
+                }
+                try {
+                    for (ByteBuffer part : EntryRecord.encode(e.getKey(), value)) {
+                        channel.write(part);
+                    }
+                    count++;
+                } finally {
+                    value.release();
+                }
+            }
+            out.flush();
+            file.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        written.increment(count);
+        return count;
+    }
+
+    /** Loads entries from the snapshot that can still be served; returns the number loaded. */
+    public int load() throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return 0;
+        }
+        int count = 0;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (file.size() > Integer.MAX_VALUE) {
+                log.warn("Cache snapshot {} is too large to map, ignoring it", path);
+                return 0;
+            }
+            MappedByteBuffer data = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            if (data.remaining() < EntryRecord.HEADER_BYTES || data.getInt() != MAGIC || data.getInt() != VERSION) {
+                log.warn("Cache snapshot {} has an unknown format, ignoring it", path);
+                return 0;
+            }
+
+            while (data.remaining() >= EntryRecord.HEADER_BYTES) {
+                int length = data.getInt();
+                int checksum = data.getInt();
+                if (length < 0 || length > data.remaining()) {
+                    corrupt.increment(); // truncated tail, nothing after it can be trusted
+                    break;
+                }
+                ByteBuffer record = data.slice(data.position(), length);
+                data.position(data.position() + length);
+
+                if (!EntryRecord.checksumMatches(record, checksum)) {
+                    corrupt.increment();
+                    continue;
+                }
+                try {
+                    if (restore(record)) {
+                        count++;
+                    }
+                } catch (RuntimeException e) {
+                    corrupt.increment();
+                }
+            }
+        }
+        loaded.increment(count);
+        log.info("Loaded {} cached responses from {}", count, path);
+        return count;
+    }
+
+    private boolean restore(ByteBuffer payload) {
+        EntryRecord record = EntryRecord.decode(payload);
+        if (PrincipalPartitions.isPrivate(record.key)) {
+            return false; // only in older snapshots
+        }
+        if (record.body.length > maxBodyBytes
+                || expiry.expireAfterCreate(record.key, record.toResponse(CachedBody.heap(record.body)), 0) <= 0) {
+            expired.increment();
+            return false;
+        }
+
+        CachedBody body = bodyStore.store(record.body);
+        if (body == null) {
+            return false;
+        }
+        CachedResponse value = record.toResponse(body);
+        // entries cached since startup are newer than the snapshot
+        if (cache.asMap().putIfAbsent(record.key, value) != null) {
+            value.release();
+            return false;
+        }
+        invalidationIndex.add(cache, record.key, value);
+        if (varyIndex != null) {
+            // otherwise lookups would key the resource by the policy's headers and miss its variants
+            varyIndex.record(record.key.resource(), policy.keyHeaders(value.getHeaders().getVary()));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,96 @@
+package com.learn.developer.cache;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Immutable response body, either on the heap or in a {@link SlabAllocator}
+ * chunk. Off-heap bodies are reference counted: the cache holds one reference
+ * and every response being written from the body holds another, so a chunk is
+ * only freed once it is evicted and no longer being sent. Heap bodies ignore
+ * reference counting.
+ */
+public final class CachedBody {
+
+    private static final AtomicIntegerFieldUpdater<CachedBody> REFS =
+            AtomicIntegerFieldUpdater.newUpdater(CachedBody.class, "refs");
+
+    /** Wraps {@code bytes} without copying; the caller must not modify them afterwards. */
+    public static CachedBody heap(byte[] bytes) {
+        return new CachedBody(ByteBuffer.wrap(bytes).asReadOnlyBuffer(), null, null);
+    }
+
+    /** Copies {@code bytes} off-heap; returns {@code null} when the allocator is full. */
+    public static CachedBody offHeap(byte[] bytes, SlabAllocator allocator) {
+        SlabAllocator.Chunk chunk = allocator.allocate(bytes.length);
+        if (chunk == null) {
+            return null;
+        }
+        ByteBuffer memory = chunk.memory();
+        memory.put(bytes).flip();
+        return new CachedBody(memory.asReadOnlyBuffer(), allocator, chunk);
+    }
+
+    /** Copies a captured body off-heap; returns {@code null} when the allocator is full. */
+    static CachedBody offHeap(BodyCapture capture, SlabAllocator allocator) {
+        SlabAllocator.Chunk chunk = allocator.allocate(capture.size());
+        if (chunk == null) {
+            return null;
+        }
+        ByteBuffer memory = chunk.memory();
+        capture.copyTo(memory);
+        memory.flip();
+        return new CachedBody(memory.asReadOnlyBuffer(), allocator, chunk);
+    }
+
+    private final ByteBuffer data;
+    private final SlabAllocator allocator;
+    private final SlabAllocator.Chunk chunk;
+    private volatile int refs = 1;
+
+    private CachedBody(ByteBuffer data, SlabAllocator allocator, SlabAllocator.Chunk chunk) {
+        this.data = data;
+        this.allocator = allocator;
+        this.chunk = chunk;
+    }
+
+    /** Read-only view positioned at the start of the body; independent per call. */
+    public ByteBuffer view() {
+        return data.duplicate();
+    }
+
+    public int length() {
+        return data.remaining();
+    }
+
+    /** Bytes of memory held for this body, which for off-heap bodies is the whole chunk. */
+    public int footprint() {
+        return chunk == null ? data.remaining() : chunk.capacity();
+    }
+
+    public boolean isOffHeap() {
+        return chunk != null;
+    }
+
+    /** Takes a reference; fails once the body has been freed. */
+    public boolean retain() {
+        if (chunk == null) {
+            return true;
+        }
+        for (;;) {
+            int current = refs;
+            if (current == 0) {
+                return false;
+            }
+            if (REFS.compareAndSet(this, current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (chunk != null && REFS.decrementAndGet(this) == 0) {
+            allocator.free(chunk);
+        }
+    }
+}
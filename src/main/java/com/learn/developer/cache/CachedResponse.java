@@ -1,34 +1,121 @@
 package com.learn.developer.cache;
 
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatusCode;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
 
+/**
+ * Immutable cache entry. The body is a read-only {@link CachedBody} and the
+ * headers are read-only {@link HttpHeaders} with immutable value lists, so a hit
+ * can hand both to the response without copying them. Off-heap bodies must be
+ * {@link #retain() retained} while they are being written.
+ */
 public final class CachedResponse {
 
-    private final byte[] body;
+    private static final AtomicIntegerFieldUpdater<CachedResponse> READS =
+            AtomicIntegerFieldUpdater.newUpdater(CachedResponse.class, "reads");
+    private static final AtomicIntegerFieldUpdater<CachedResponse> REFRESHING =
+            AtomicIntegerFieldUpdater.newUpdater(CachedResponse.class, "refreshing");
+
+    // this object, its Instant, the CachedBody and its buffer view
+    private static final int ENTRY = 64 + 24 + 32 + 56;
+    // the Chunk and the direct buffer slice of an off-heap body
+    private static final int OFF_HEAP_CHUNK = 24 + 64;
+    // the read-only wrapper, the HttpHeaders copy, and the LinkedCaseInsensitiveMap
+    // with the linked map and the case-insensitive key map behind it
+    private static final int HEADERS = 16 + 16 + 40 + 56 + 48;
+    // a linked map entry, a key map node and their table slots at the default load factor
+    private static final int HEADER = 40 + 32 + 4 * Footprint.REFERENCE;
+
+    private final CachedBody body;
     private final int statusCode;
-    private final MultiValueMap<String, String> headers;
+    private final HttpHeaders headers;
     private final Instant storedAt;
     private final long maxAgeSeconds;
+    private final long staleWhileRevalidateSeconds;
+    private final long staleIfErrorSeconds;
+    private final long lastModifiedMillis;
+    private final boolean noCache;
+    private final int weight;
+    private volatile int reads;
+    private volatile int refreshing;
 
-    public CachedResponse(byte[] body, int statusCode, MultiValueMap<String, String> headers, Instant storedAt,
-            long maxAgeSeconds) {
-        this.body = body == null ? new byte[0] : body.clone();
+    /** Takes over the cache's reference to {@code body}. Headers are copied. */
+    public CachedResponse(CachedBody body, int statusCode, HttpHeaders headers, Instant storedAt,
+            long maxAgeSeconds, long staleWhileRevalidateSeconds, long staleIfErrorSeconds) {
+        this.body = body;
         this.statusCode = statusCode;
-        this.headers = new LinkedMultiValueMap<>();
+        HttpHeaders copy = new HttpHeaders();
         if (headers != null) {
-            headers.forEach((k, v) -> this.headers.put(k, List.copyOf(v)));
+            headers.forEach((k, v) -> copy.put(k, List.copyOf(v)));
         }
+        this.headers = HttpHeaders.readOnlyHttpHeaders(copy);
         this.storedAt = storedAt;
         this.maxAgeSeconds = maxAgeSeconds;
+        this.staleWhileRevalidateSeconds = staleWhileRevalidateSeconds;
+        this.staleIfErrorSeconds = staleIfErrorSeconds;
+        this.lastModifiedMillis = this.headers.getLastModified();
+        this.noCache = CacheDirectives.parse(this.headers.get(HttpHeaders.CACHE_CONTROL)).isNoCache();
+        this.weight = weigh(body, copy);
     }
 
-    public byte[] getBody() {
-        return body.clone();
+    private static int weigh(CachedBody body, HttpHeaders headers) {
+        long weight = ENTRY + HEADERS + (body.isOffHeap()
+                ? OFF_HEAP_CHUNK + body.footprint()
+                : Footprint.byteArray(body.footprint()));
+        for (Map.Entry<String, List<String>> header : headers.headerSet()) {
+            List<String> values = header.getValue();
+            // the name is held twice: as given and lower-cased for lookups
+            weight += HEADER + 2L * Footprint.string(header.getKey())
+                    + Footprint.align(Footprint.OBJECT_HEADER + Footprint.REFERENCE)
+                    + Footprint.referenceArray(values.size());
+            for (String value : values) {
+                weight += Footprint.string(value);
+            }
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Copy of this entry after a successful revalidation (upstream 304). The body is
+     * shared with this entry rather than copied, and gains a reference for the new
+     * entry; the caller must hold a reference to this entry. Returns {@code null}
+     * if the body has already been freed.
+     */
+    public CachedResponse revalidated(HttpHeaders headers, Instant storedAt, long maxAgeSeconds,
+            long staleWhileRevalidateSeconds, long staleIfErrorSeconds) {
+        if (!body.retain()) {
+            return null;
+        }
+        return new CachedResponse(body, statusCode, headers, storedAt, maxAgeSeconds, staleWhileRevalidateSeconds,
+                staleIfErrorSeconds);
+    }
+
+    /** Read-only view of the body positioned at its start; independent per call. */
+    public ByteBuffer getBody() {
+        return body.view();
+    }
+
+    public int getBodyLength() {
+        return body.length();
+    }
+
+    public boolean isOffHeap() {
+        return body.isOffHeap();
+    }
+
+    /** Keeps the body alive while it is written; fails if it was already freed. */
+    public boolean retain() {
+        return body.retain();
+    }
+
+    public void release() {
+        body.release();
     }
 
     public int getStatusCode() {
@@ -39,10 +126,9 @@ public final class CachedResponse {
         return HttpStatusCode.valueOf(statusCode);
     }
 
-    public MultiValueMap<String, String> getHeaders() {
-        MultiValueMap<String, String> copy = new LinkedMultiValueMap<>();
-        headers.forEach((k, v) -> copy.put(k, List.copyOf(v)));
-        return copy;
+    /** Read-only headers; the value lists are immutable and safe to share. */
+    public HttpHeaders getHeaders() {
+        return headers;
     }
 
     public Instant getStoredAt() {
@@ -53,7 +139,51 @@ public final class CachedResponse {
         return maxAgeSeconds;
     }
 
+    public long getStaleWhileRevalidateSeconds() {
+        return staleWhileRevalidateSeconds;
+    }
+
+    public long getStaleIfErrorSeconds() {
+        return staleIfErrorSeconds;
+    }
+
+    public String getETag() {
+        return headers.getETag();
+    }
+
+    public String getLastModified() {
+        return headers.getFirst(HttpHeaders.LAST_MODIFIED);
+    }
+
+    public long getLastModifiedMillis() {
+        return lastModifiedMillis;
+    }
+
+    /** Counts a read served from this entry; returns the reads so far. */
+    public int recordRead() {
+        return READS.incrementAndGet(this);
+    }
+
+    /** Claims the one refresh-ahead of this entry; fails if it was already claimed. */
+    public boolean claimRefresh() {
+        return REFRESHING.compareAndSet(this, 0, 1);
+    }
+
+    public boolean hasValidators() {
+        return headers.containsHeader(HttpHeaders.ETAG) || headers.containsHeader(HttpHeaders.LAST_MODIFIED);
+    }
+
+    /** Whether the upstream sent {@code no-cache}: the entry may only be served once revalidated. */
+    public boolean isNoCache() {
+        return noCache;
+    }
+
+    /**
+     * Estimated bytes retained by this entry: the body, which for off-heap bodies
+     * is the whole chunk, the headers and the objects holding them. The key and
+     * the cache's own node are weighed by the cache.
+     */
     public int weight() {
-        return body.length;
+        return weight;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,501 @@
+package com.learn.developer.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiPredicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Second cache tier on local disk, behind the Caffeine cache. Entries evicted
+ * from the heap tier for size are {@link #demote demoted} here and
+ * {@link #promote promoted} back on their next hit, so each entry lives in one
+ * tier at a time.
+ * <p>
+ * Records ({@link EntryRecord}) are appended to segment files by a single writer
+ * thread and read with positional {@link FileChannel} reads. When the files
+ * exceed {@code maxBytes} the oldest segment is dropped; sealed segments whose
+ * live records fall below the compaction threshold have those records copied
+ * forward and are deleted. The directory is emptied on startup.
+ */
+public final class DiskTier implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DiskTier.class);
+
+    private static final String SEGMENT_SUFFIX = ".l2";
+    private static final int MAX_PENDING_DEMOTIONS = 1024;
+    private static final int INVALIDATION_STRIPES = 64;
+
+    private static final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicLong liveBytes = new AtomicLong();
+        private long size;
+
+        private Segment(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    private static final class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int length; // header included
+        private final List<String> tags; // surrogate keys, for bulk invalidation
+
+        private Location(Segment segment, long offset, int length, List<String> tags) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.tags = tags;
+        }
+    }
+
+    /** A demotion waiting for the writer; an invalidation removes it so it is never indexed. */
+    private static final class Queued {
+        private final List<String> tags;
+
+        private Queued(List<String> tags) {
+            this.tags = tags;
+        }
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final double compactionThreshold;
+    private final ResponseExpiry expiry;
+    private final BodyStore bodyStore;
+    private final InvalidationIndex invalidationIndex;
+
+    private final Map<CacheKey, Location> index = new ConcurrentHashMap<>();
+    private final Map<CacheKey, Queued> queued = new ConcurrentHashMap<>();
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>(); // oldest first, last is active
+    private final Scheduler writer = Schedulers.newSingle("cache-l2-writer");
+    private final AtomicInteger pendingDemotions = new AtomicInteger();
+    private final AtomicLong totalBytes = new AtomicLong();
+    // bumped by every invalidation, per key stripe and for bulk ones, so a promotion can tell it raced one
+    private final AtomicLongArray keyInvalidations = new AtomicLongArray(INVALIDATION_STRIPES);
+    private final AtomicLong bulkInvalidations = new AtomicLong();
+    private long nextSegmentId;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter demotions;
+    private final Counter droppedDemotions;
+    private final Counter evictions;
+    private final Counter compactions;
+
+    public DiskTier(CacheProperties.Disk props, ResponseExpiry expiry, BodyStore bodyStore,
+            InvalidationIndex invalidationIndex, MeterRegistry registry) throws IOException {
+        this.directory = Path.of(props.getDirectory());
+        this.maxBytes = props.getMaxBytes();
+        this.segmentBytes = props.getSegmentBytes();
+        this.compactionThreshold = props.getCompactionThreshold();
+        this.expiry = expiry;
+        this.bodyStore = bodyStore;
+        this.invalidationIndex = invalidationIndex;
+
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path p : stale) {
+                Files.delete(p);
+            }
+        }
+
+        this.hits = Counter.builder("gateway.cache.l2.requests").tag("result", "hit").register(registry);
+        this.misses = Counter.builder("gateway.cache.l2.requests").tag("result", "miss").register(registry);
+        this.demotions = Counter.builder("gateway.cache.l2.demotions")
+                .description("Entries moved from the heap tier to disk")
+                .register(registry);
+        this.droppedDemotions = Counter.builder("gateway.cache.l2.demotions.dropped")
+                .description("Evicted entries not demoted because the writer was behind")
+                .register(registry);
+        this.evictions = Counter.builder("gateway.cache.l2.evictions")
+                .description("Entries dropped with the oldest segment to stay under max-bytes")
+                .register(registry);
+        this.compactions = Counter.builder("gateway.cache.l2.compactions").register(registry);
+        Gauge.builder("gateway.cache.l2.size", index, Map::size).register(registry);
+        Gauge.builder("gateway.cache.l2.bytes", totalBytes, AtomicLong::get)
+                .description("Bytes in segment files, including dead records")
+                .register(registry);
+    }
+
+    /**
+     * Queues an entry evicted from the heap tier to be written to disk. Never
+     * blocks: the entry is retained until written, and dropped when too many
+     * demotions are already waiting. An invalidation of the key before the
+     * write cancels it, as does a later demotion of the same key. Private
+     * entries of a principal are not demoted.
+     */
+    public void demote(CacheKey key, CachedResponse value) {
+        if (PrincipalPartitions.isPrivate(key)) {
+            return;
+        }
+        if (pendingDemotions.incrementAndGet() > MAX_PENDING_DEMOTIONS || !value.retain()) {
+            pendingDemotions.decrementAndGet();
+            droppedDemotions.increment();
+            return;
+        }
+        Queued demotion = new Queued(InvalidationIndex.tags(value));
+        queued.put(key, demotion);
+        writer.schedule(() -> {
+            try {
+                if (queued.get(key) == demotion) {
+                    Location location = append(EntryRecord.encode(key, value), demotion.tags);
+                    if (location != null && indexDemoted(key, demotion, location)) {
+                        demotions.increment();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Could not demote {}", key, e);
+            } finally {
+                queued.remove(key, demotion);
+                value.release();
+                pendingDemotions.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Indexes a written demotion unless it was cancelled meanwhile, atomically
+     * with respect to {@link #invalidate}, which cancels before it unindexes.
+     */
+    private boolean indexDemoted(CacheKey key, Queued demotion, Location location) {
+        boolean[] indexed = new boolean[1];
+        queued.computeIfPresent(key, (k, q) -> {
+            if (q != demotion) {
+                return q;
+            }
+            Location previous = index.put(key, location);
+            if (previous != null) {
+                discard(previous);
+            }
+            indexed[0] = true;
+            return null;
+        });
+        if (!indexed[0]) {
+            discard(location);
+        }
+        return indexed[0];
+    }
+
+    /**
+     * Moves an entry back into the heap tier. Emits the entry, retained for the
+     * caller, or completes empty when it is not on disk or no longer servable.
+     * Keys that are not on disk complete at once on the calling thread; only the
+     * read of a record is moved off it.
+     */
+    public Mono<CachedResponse> promote(CacheKey key, Cache<CacheKey, CachedResponse> heapTier) {
+        long epoch = invalidationEpoch(key);
+        Location location = index.get(key);
+        if (location == null) {
+            misses.increment();
+            return Mono.empty();
+        }
+        return Mono.fromCallable(() -> load(key, location, epoch, heapTier))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Reads the record and moves it to the heap tier. The record is unindexed
+     * before the heap insert, so an invalidation either finds it on disk or runs
+     * after the unindexing; in the latter case the insert is undone when the
+     * invalidation has started by the time it lands, and an invalidation that
+     * starts later finds the entry in the heap tier, provided callers invalidate
+     * this tier before the heap tier.
+     */
+    private CachedResponse load(CacheKey key, Location location, long epoch,
+            Cache<CacheKey, CachedResponse> heapTier) throws IOException {
+        EntryRecord record = read(location);
+        if (record == null || !record.key.equals(key)) {
+            misses.increment();
+            return null;
+        }
+        CachedResponse onDisk = record.toResponse(CachedBody.heap(record.body));
+        if (expiry.expireAfterCreate(key, onDisk, 0) <= 0) {
+            remove(key, location);
+            misses.increment();
+            return null;
+        }
+
+        CachedBody body = bodyStore.store(record.body);
+        if (body == null) {
+            if (index.get(key) != location) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return onDisk; // no room off-heap: serve it from disk and leave it there
+        }
+        CachedResponse value = record.toResponse(body);
+        if (!remove(key, location)) {
+            // invalidated, or replaced by a newer demotion, while we were reading
+            value.release();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        CachedResponse existing = heapTier.asMap().putIfAbsent(key, value);
+        if (existing != null) {
+            // a fresher response was cached while we were reading
+            value.release();
+            value = existing;
+        } else {
+            invalidationIndex.add(heapTier, key, value);
+        }
+        boolean retained = value.retain();
+        if (invalidationEpoch(key) != epoch) {
+            heapTier.asMap().remove(key, value);
+        }
+        return retained ? value : null;
+    }
+
+    private long invalidationEpoch(CacheKey key) {
+        return keyInvalidations.get(stripe(key)) + bulkInvalidations.get();
+    }
+
+    private static int stripe(CacheKey key) {
+        return key.hashCode() & (INVALIDATION_STRIPES - 1);
+    }
+
+    public void invalidate(CacheKey key) {
+        keyInvalidations.incrementAndGet(stripe(key));
+        queued.remove(key);
+        Location location = index.remove(key);
+        if (location != null) {
+            discard(location);
+        }
+    }
+
+    /**
+     * Invalidates the entries for which {@code matches} holds, given the key and
+     * the entry's surrogate keys. Scans the whole index. Returns the number of
+     * entries invalidated, demotions still queued included.
+     */
+    public int invalidateMatching(BiPredicate<CacheKey, List<String>> matches) {
+        bulkInvalidations.incrementAndGet();
+        int count = 0;
+        for (Map.Entry<CacheKey, Queued> e : queued.entrySet()) {
+            if (matches.test(e.getKey(), e.getValue().tags) && queued.remove(e.getKey(), e.getValue())) {
+                count++;
+            }
+        }
+        for (Map.Entry<CacheKey, Location> e : index.entrySet()) {
+            if (matches.test(e.getKey(), e.getValue().tags) && remove(e.getKey(), e.getValue())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void invalidateAll() {
+        bulkInvalidations.incrementAndGet();
+        queued.clear();
+        index.clear();
+        writer.schedule(() -> {
+            synchronized (this) {
+                while (segments.size() > 1) {
+                    dropOldest();
+                }
+                for (Segment s : segments) {
+                    s.liveBytes.set(0);
+                }
+            }
+        });
+    }
+
+    /** Blocks until the demotions queued so far are written. */
+    void awaitWrites() {
+        Mono.empty().subscribeOn(writer).block();
+    }
+
+    public long size() {
+        return index.size();
+    }
+
+    public long bytes() {
+        return totalBytes.get();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.dispose();
+        index.clear();
+        while (!segments.isEmpty()) {
+            Segment s = segments.pollFirst();
+            s.channel.close();
+            Files.deleteIfExists(s.path);
+        }
+    }
+
+    private boolean remove(CacheKey key, Location location) {
+        if (index.remove(key, location)) {
+            discard(location);
+            return true;
+        }
+        return false;
+    }
+
+    /** Counts a record that is no longer indexed as dead, for compaction. */
+    private static void discard(Location location) {
+        location.segment.liveBytes.addAndGet(-location.length);
+    }
+
+    private EntryRecord read(Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.length);
+        try {
+            long position = location.offset;
+            while (buffer.hasRemaining()) {
+                int n = location.segment.channel.read(buffer, position);
+                if (n < 0) {
+                    return null;
+                }
+                position += n;
+            }
+        } catch (ClosedChannelException e) {
+            return null; // the segment was dropped meanwhile
+        }
+        buffer.flip();
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        ByteBuffer payload = buffer.slice();
+        if (length != payload.remaining() || !EntryRecord.checksumMatches(payload, checksum)) {
+            log.warn("Corrupt L2 record at {}:{}", location.segment.path, location.offset);
+            return null;
+        }
+        return EntryRecord.decode(payload);
+    }
+
+    /**
+     * Writes a record to the active segment and returns its location, counted as
+     * live but not yet indexed, or null when it is larger than a segment. Writer
+     * thread only.
+     */
+    private synchronized Location append(ByteBuffer[] record, List<String> tags) throws IOException {
+        long length = 0;
+        for (ByteBuffer part : record) {
+            length += part.remaining();
+        }
+        if (length > segmentBytes) {
+            return null;
+        }
+
+        Segment active = segments.peekLast();
+        if (active == null || active.size + length > segmentBytes) {
+            active = roll();
+        }
+        long offset = active.size;
+        long position = offset;
+        for (ByteBuffer part : record) {
+            while (part.hasRemaining()) {
+                position += active.channel.write(part, position);
+            }
+        }
+        active.size = position;
+        totalBytes.addAndGet(length);
+        active.liveBytes.addAndGet(length);
+
+        while (totalBytes.get() > maxBytes && segments.size() > 1) {
+            dropOldest();
+        }
+        return new Location(active, offset, (int) length, tags);
+    }
+
+    private Segment roll() throws IOException {
+        Segment sealed = segments.peekLast();
+        long id = nextSegmentId++;
+        Path path = directory.resolve(String.format("segment-%08d%s", id, SEGMENT_SUFFIX));
+        Segment segment = new Segment(path, FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.addLast(segment);
+        if (sealed != null) {
+            writer.schedule(this::compact);
+        }
+        return segment;
+    }
+
+    private void dropOldest() {
+        Segment oldest = segments.pollFirst();
+        int before = index.size();
+        index.values().removeIf(l -> l.segment == oldest);
+        evictions.increment(before - index.size());
+        closeQuietly(oldest);
+    }
+
+    /** Copies the live records of sparse sealed segments forward and deletes them. Writer thread only. */
+    private synchronized void compact() {
+        List<Segment> sparse = new ArrayList<>();
+        for (Segment s : segments) {
+            if (s != segments.peekLast() && s.liveBytes.get() < s.size * compactionThreshold) {
+                sparse.add(s);
+            }
+        }
+        for (Segment s : sparse) {
+            for (Map.Entry<CacheKey, Location> e : index.entrySet()) {
+                Location location = e.getValue();
+                if (location.segment != s) {
+                    continue;
+                }
+                try {
+                    EntryRecord record = read(location);
+                    CachedResponse value = record == null ? null : record.toResponse(CachedBody.heap(record.body));
+                    Location moved = value == null || expiry.expireAfterCreate(e.getKey(), value, 0) <= 0 ? null
+                            : append(EntryRecord.encode(e.getKey(), value), location.tags);
+                    if (moved != null) {
+                        if (index.replace(e.getKey(), location, moved)) {
+                            discard(location);
+                        } else {
+                            discard(moved); // invalidated or replaced while it was copied
+                        }
+                    } else {
+                        remove(e.getKey(), location);
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    remove(e.getKey(), location);
+                }
+            }
+            if (segments.remove(s)) {
+                index.values().removeIf(l -> l.segment == s);
+                closeQuietly(s);
+                compactions.increment();
+            }
+        }
+    }
+
+    private void closeQuietly(Segment segment) {
+        totalBytes.addAndGet(-segment.size);
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            log.warn("Could not delete L2 segment {}", segment.path, e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.learn.developer.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * On-disk form of a cache entry, shared by {@link CacheSnapshot} and {@link DiskTier}.
+ * A record is framed as its payload length and a CRC32 of the payload, followed
+ * by the key, status, freshness fields, headers and finally the body.
+ */
+final class EntryRecord {
+
+    static final int HEADER_BYTES = 8; // payload length + CRC32
+
+    final CacheKey key;
+    final int status;
+    final HttpHeaders headers;
+    final Instant storedAt;
+    final long maxAgeSeconds;
+    final long staleWhileRevalidateSeconds;
+    final long staleIfErrorSeconds;
+    final byte[] body;
+
+    private EntryRecord(CacheKey key, int status, HttpHeaders headers, Instant storedAt, long maxAgeSeconds,
+            long staleWhileRevalidateSeconds, long staleIfErrorSeconds, byte[] body) {
+        this.key = key;
+        this.status = status;
+        this.headers = headers;
+        this.storedAt = storedAt;
+        this.maxAgeSeconds = maxAgeSeconds;
+        this.staleWhileRevalidateSeconds = staleWhileRevalidateSeconds;
+        this.staleIfErrorSeconds = staleIfErrorSeconds;
+        this.body = body;
+    }
+
+    /**
+     * Frames an entry as header, metadata and body buffers, ready for a gathering
+     * write. The body buffer is a view of the entry's body, so the caller must hold
+     * a reference to the entry until it has been written.
+     */
+    static ByteBuffer[] encode(CacheKey key, CachedResponse value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeString(out, key.getMethod());
+            writeString(out, key.getPathAndQuery());
+            writeString(out, key.getVaryHeaderFingerprint());
+            out.writeInt(value.getStatusCode());
+            out.writeLong(value.getStoredAt().toEpochMilli());
+            out.writeLong(value.getMaxAgeSeconds());
+            out.writeLong(value.getStaleWhileRevalidateSeconds());
+            out.writeLong(value.getStaleIfErrorSeconds());
+
+            HttpHeaders headers = value.getHeaders();
+            out.writeInt(headers.size());
+            for (Map.Entry<String, List<String>> h : headers.headerSet()) {
+                writeString(out, h.getKey());
+                out.writeInt(h.getValue().size());
+                for (String v : h.getValue()) {
+                    writeString(out, v);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        ByteBuffer meta = ByteBuffer.wrap(bytes.toByteArray());
+        ByteBuffer body = value.getBody();
+        CRC32 crc = new CRC32();
+        crc.update(meta.duplicate());
+        crc.update(body.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(meta.remaining() + body.remaining()).putInt((int) crc.getValue()).flip();
+        return new ByteBuffer[] { header, meta, body };
+    }
+
+    static boolean checksumMatches(ByteBuffer payload, int checksum) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue() == checksum;
+    }
+
+    /** Decodes a payload whose checksum has been verified; the body is copied to the heap. */
+    static EntryRecord decode(ByteBuffer payload) {
+        ByteBuffer in = payload.duplicate();
+        CacheKey key = CacheKey.of(readString(in), readString(in), readString(in));
+        int status = in.getInt();
+        Instant storedAt = Instant.ofEpochMilli(in.getLong());
+        long maxAge = in.getLong();
+        long swr = in.getLong();
+        long sie = in.getLong();
+
+        HttpHeaders headers = new HttpHeaders();
+        int headerCount = in.getInt();
+        for (int i = 0; i < headerCount; i++) {
+            String name = readString(in);
+            int valueCount = in.getInt();
+            List<String> values = new ArrayList<>(valueCount);
+            for (int j = 0; j < valueCount; j++) {
+                values.add(readString(in));
+            }
+            headers.put(name, values);
+        }
+
+        byte[] body = new byte[in.remaining()];
+        in.get(body);
+        return new EntryRecord(key, status, headers, storedAt, maxAge, swr, sie, body);
+    }
+
+    /** The entry backed by {@code body}, which must hold this record's body bytes. */
+    CachedResponse toResponse(CachedBody body) {
+        return new CachedResponse(body, status, headers, storedAt, maxAgeSeconds, staleWhileRevalidateSeconds,
+                staleIfErrorSeconds);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,39 @@
+package com.learn.developer.cache;
+
+/**
+ * Estimates of the heap retained by cache entries, for a 64-bit JVM with
+ * compressed references and compact strings: 12-byte object headers, 4-byte
+ * references and 8-byte alignment. Strings are counted as Latin-1, which
+ * under-counts the rare UTF-16 header value by half.
+ */
+final class Footprint {
+
+    static final int OBJECT_HEADER = 12;
+    static final int REFERENCE = 4;
+    static final int ARRAY_HEADER = 16;
+
+    /** Caffeine's node for a weighted, expiring entry and its slot in the hash table. */
+    static final int CACHE_NODE = 88;
+
+    /** String object without its byte array. */
+    private static final int STRING = 24;
+
+    private Footprint() {
+    }
+
+    static int align(long bytes) {
+        return (int) ((bytes + 7) & ~7L);
+    }
+
+    static int byteArray(int length) {
+        return align(ARRAY_HEADER + (long) length);
+    }
+
+    static int referenceArray(int length) {
+        return align(ARRAY_HEADER + (long) REFERENCE * length);
+    }
+
+    static int string(String s) {
+        return STRING + byteArray(s.length());
+    }
+}
@@ -0,0 +1,155 @@
+package com.learn.developer.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Gzip support for the compressed storage mode: bodies are stored gzipped once
+ * and inflated on the fly for the clients that cannot take gzip.
+ */
+final class GzipBodies {
+
+    static final String GZIP = "gzip";
+
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    private GzipBodies() {
+    }
+
+    static boolean isGzip(String contentEncoding) {
+        return contentEncoding != null
+                && (GZIP.equalsIgnoreCase(contentEncoding.trim()) || "x-gzip".equalsIgnoreCase(contentEncoding.trim()));
+    }
+
+    /** Whether {@code Accept-Encoding} allows gzip, honouring {@code q=0} and {@code *}. */
+    static boolean accepts(List<String> acceptEncoding) {
+        return accepts(acceptEncoding, GZIP);
+    }
+
+    /** Whether {@code coding} is acceptable under {@code Accept-Encoding}; gzip also matches x-gzip. */
+    static boolean accepts(List<String> acceptEncoding, String coding) {
+        boolean wildcard = false;
+        for (String header : acceptEncoding) {
+            for (String part : header.split(",")) {
+                String[] fields = part.split(";");
+                String name = fields[0].trim().toLowerCase(Locale.ROOT);
+                boolean refused = false;
+                for (int i = 1; i < fields.length; i++) {
+                    String param = fields[i].trim();
+                    if (param.startsWith("q=") || param.startsWith("Q=")) {
+                        refused = isZero(param.substring(2).trim());
+                    }
+                }
+                if (name.equals(coding) || (coding.equals(GZIP) && name.equals("x-gzip"))) {
+                    return !refused;
+                }
+                if (name.equals("*")) {
+                    wildcard = !refused;
+                }
+            }
+        }
+        return wildcard;
+    }
+
+    private static boolean isZero(String q) {
+        try {
+            return Double.parseDouble(q) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    static boolean isCompressible(MediaType type, List<MediaType> compressible) {
+        if (type == null) {
+            return false;
+        }
+        for (MediaType candidate : compressible) {
+            if (candidate.includes(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Gzips the remaining bytes of {@code body}, read in chunks rather than copied whole. */
+    static byte[] compress(ByteBuffer body, int level) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.remaining() / 4));
+        byte[] chunk = new byte[Math.min(CHUNK_BYTES, Math.max(1, body.remaining()))];
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8 * 1024) {
+            {
+                def.setLevel(level == -1 ? Deflater.DEFAULT_COMPRESSION : level);
+            }
+        }) {
+            while (body.hasRemaining()) {
+                int n = Math.min(chunk.length, body.remaining());
+                body.get(chunk, 0, n);
+                gzip.write(chunk, 0, n);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /** Inflates {@code gzipped} in chunks as the response is written. */
+    static Flux<DataBuffer> decompress(ByteBuffer gzipped, DataBufferFactory factory) {
+        return Flux.using(
+                () -> new GZIPInputStream(new ByteBufferInputStream(gzipped), CHUNK_BYTES),
+                in -> Flux.generate(sink -> {
+                    try {
+                        byte[] chunk = in.readNBytes(CHUNK_BYTES);
+                        if (chunk.length == 0) {
+                            sink.complete();
+                        } else {
+                            sink.next(factory.wrap(chunk));
+                        }
+                    } catch (IOException e) {
+                        sink.error(e);
+                    }
+                }),
+                in -> {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                        // nothing to release, the source is in memory
+                    }
+                });
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.learn.developer.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent-hash ring mapping cache keys to the replica that owns them. Each
+ * member is placed on the ring at {@code virtualNodes} points, so keys spread
+ * evenly and a member joining or leaving only moves about 1/N of the keys.
+ * Immutable; a membership change builds a new ring.
+ */
+public final class HashRing {
+
+    private final List<String> members;
+    private final long[] points; // sorted
+    private final String[] owners; // owner of each point
+
+    public HashRing(List<String> members, int virtualNodes) {
+        if (members.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("a ring needs members and at least one virtual node each");
+        }
+        this.members = List.copyOf(members);
+        int n = this.members.size() * virtualNodes;
+        long[] hashes = new long[n];
+        int[] memberOf = new int[n];
+        Integer[] order = new Integer[n];
+        for (int m = 0; m < this.members.size(); m++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                int i = m * virtualNodes + v;
+                hashes[i] = hash(this.members.get(m) + "#" + v);
+                memberOf[i] = m;
+                order[i] = i;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+
+        this.points = new long[n];
+        this.owners = new String[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = this.members.get(memberOf[order[i]]);
+        }
+    }
+
+    public List<String> getMembers() {
+        return members;
+    }
+
+    /** The member owning {@code key}: the first point at or after its hash. */
+    public String ownerOf(CacheKey key) {
+        return ownerOf(hash(key.resourceId()));
+    }
+
+    String ownerOf(long hash) {
+        int i = Arrays.binarySearch(points, hash);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /** 64-bit FNV-1a of the UTF-8 bytes, with the MurmurHash3 finalizer for avalanche. */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
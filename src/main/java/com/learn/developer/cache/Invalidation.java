@@ -0,0 +1,51 @@
+package com.learn.developer.cache;
+
+import java.util.Objects;
+
+/**
+ * One invalidation, as applied by {@link CacheInvalidator} and carried to the
+ * other replicas by {@link InvalidationBus}: the whole cache, a single key, or
+ * the entries selected by a path, path prefix, path glob or surrogate key.
+ */
+public record Invalidation(Kind kind, String target, CacheKey key) {
+
+    public enum Kind {
+        CLEAR, KEY, PATH, PREFIX, GLOB, TAG
+    }
+
+    private static final Invalidation CLEAR = new Invalidation(Kind.CLEAR, null, null);
+
+    public Invalidation {
+        Objects.requireNonNull(kind, "kind");
+        if (kind == Kind.KEY) {
+            Objects.requireNonNull(key, "key");
+        } else if (kind != Kind.CLEAR) {
+            Objects.requireNonNull(target, "target");
+        }
+    }
+
+    public static Invalidation clear() {
+        return CLEAR;
+    }
+
+    public static Invalidation key(CacheKey key) {
+        return new Invalidation(Kind.KEY, null, key);
+    }
+
+    /** Entries of exactly {@code path}, with any query string or variant. */
+    public static Invalidation path(String path) {
+        return new Invalidation(Kind.PATH, path, null);
+    }
+
+    public static Invalidation prefix(String prefix) {
+        return new Invalidation(Kind.PREFIX, prefix, null);
+    }
+
+    public static Invalidation glob(String glob) {
+        return new Invalidation(Kind.GLOB, glob, null);
+    }
+
+    public static Invalidation tag(String tag) {
+        return new Invalidation(Kind.TAG, tag, null);
+    }
+}
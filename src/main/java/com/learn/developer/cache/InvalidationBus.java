@@ -0,0 +1,365 @@
+package com.learn.developer.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Propagates invalidations between gateway replicas. Published invalidations
+ * are coalesced for {@code batch-interval}, or until {@code max-batch} are
+ * pending, and sent over the {@link InvalidationTransport} in messages of at
+ * most {@code max-message-bytes}.
+ * <p>
+ * Each message carries the sender's node id and a sequence number. A receiver
+ * drops messages it has already seen, or that arrive after a later one, and
+ * when it detects a gap it clears its cache, since it cannot know what the
+ * missing messages invalidated. A node id is random per start, so a restarted
+ * peer begins a new sequence.
+ * <p>
+ * Messages are signed with an HMAC-SHA256 of {@code shared-key}, which every
+ * replica must share; messages whose signature does not match are dropped
+ * unread. An invalidation too large for any datagram is sent as a clear.
+ */
+public final class InvalidationBus implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(InvalidationBus.class);
+
+    private static final int MAGIC = 0x47574942; // "GWIB"
+    private static final int VERSION = 2; // 2: signed, strings length-prefixed
+    private static final int HEADER_BYTES = 17; // magic, version, node id length, sequence and count
+    private static final String HMAC = "HmacSHA256";
+    private static final int MAC_BYTES = 32;
+    private static final int MAX_DATAGRAM_BYTES = 65_507;
+
+    private final InvalidationTransport transport;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Duration batchInterval;
+    private final int maxBatch;
+    private final int maxMessageBytes;
+    private final SecretKeySpec sharedKey;
+
+    private final Object sendLock = new Object();
+    private Set<Invalidation> pending = new LinkedHashSet<>(); // guarded by this
+    private long sequence; // guarded by sendLock
+    private final Map<String, Long> lastSequence = new HashMap<>(); // guarded by itself
+    private volatile Consumer<Invalidation> receiver = invalidation -> {
+    };
+
+    private final Counter sent;
+    private final Counter received;
+    private final Counter messagesSent;
+    private final Counter duplicate;
+    private final Counter corrupt;
+    private final Counter unauthenticated;
+    private final Counter oversize;
+    private final Counter gaps;
+
+    private volatile boolean running;
+    private Disposable schedule;
+
+    public InvalidationBus(InvalidationTransport transport, CacheProperties.Cluster props, MeterRegistry registry) {
+        this.transport = transport;
+        this.batchInterval = props.getBatchInterval();
+        this.maxBatch = props.getMaxBatch();
+        this.maxMessageBytes = props.getMaxMessageBytes();
+        if (props.getSharedKey() == null || props.getSharedKey().isBlank()) {
+            throw new IllegalStateException("gateway.cache.cluster.shared-key must be set to sign invalidations");
+        }
+        this.sharedKey = new SecretKeySpec(props.getSharedKey().getBytes(StandardCharsets.UTF_8), HMAC);
+        this.sent = invalidations(registry, "sent");
+        this.received = invalidations(registry, "received");
+        this.messagesSent = messages(registry, "sent");
+        this.duplicate = messages(registry, "duplicate");
+        this.corrupt = messages(registry, "corrupt");
+        this.unauthenticated = messages(registry, "unauthenticated");
+        this.oversize = Counter.builder("gateway.cache.cluster.oversize")
+                .description("Invalidations too large for a datagram, sent to the peers as a clear")
+                .register(registry);
+        this.gaps = Counter.builder("gateway.cache.cluster.gaps")
+                .description("Messages from peers that never arrived; each gap clears the cache")
+                .register(registry);
+    }
+
+    private static Counter invalidations(MeterRegistry registry, String direction) {
+        return Counter.builder("gateway.cache.cluster.invalidations")
+                .tag("direction", direction)
+                .register(registry);
+    }
+
+    private static Counter messages(MeterRegistry registry, String outcome) {
+        return Counter.builder("gateway.cache.cluster.messages")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    /** Sets where invalidations from peers are applied; set before the bus starts. */
+    public void onReceive(Consumer<Invalidation> receiver) {
+        this.receiver = receiver;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Queues {@code invalidation} for the peers; a full batch is sent right away,
+     * though never on the caller's thread.
+     */
+    public void publish(Invalidation invalidation) {
+        boolean full;
+        synchronized (this) {
+            if (invalidation.kind() == Invalidation.Kind.CLEAR) {
+                pending.clear(); // subsumes everything queued before it
+            }
+            pending.add(invalidation);
+            full = pending.size() >= maxBatch;
+        }
+        if (full) {
+            Schedulers.boundedElastic().schedule(this::flushQuietly);
+        }
+    }
+
+    /** Sends the pending invalidations. */
+    void flush() {
+        synchronized (sendLock) {
+            List<Invalidation> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pending);
+                pending = new LinkedHashSet<>();
+            }
+            // sent in sequence order, split so that each message fits in a datagram
+            List<byte[]> encoded = new ArrayList<>();
+            int empty = HEADER_BYTES + nodeId.length() + MAC_BYTES;
+            int bytes = empty;
+            for (Invalidation invalidation : batch) {
+                byte[] e = encode(invalidation);
+                if (empty + e.length > MAX_DATAGRAM_BYTES) {
+                    oversize.increment();
+                    e = encode(Invalidation.clear());
+                }
+                if (!encoded.isEmpty() && bytes + e.length > maxMessageBytes) {
+                    send(encoded);
+                    encoded.clear();
+                    bytes = empty;
+                }
+                encoded.add(e);
+                bytes += e.length;
+            }
+            send(encoded);
+        }
+    }
+
+    private void send(List<byte[]> invalidations) {
+        long seq = ++sequence;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(nodeId);
+            out.writeLong(seq);
+            out.writeShort(invalidations.size());
+            for (byte[] invalidation : invalidations) {
+                out.write(invalidation);
+            }
+            out.write(mac().doFinal(bytes.toByteArray()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // in-memory stream
+        }
+        try {
+            transport.send(bytes.toByteArray());
+            messagesSent.increment();
+            sent.increment(invalidations.size());
+        } catch (IOException | RuntimeException e) {
+            // peers will see the gap and clear their caches
+            log.warn("Could not send {} cache invalidations (message {})", invalidations.size(), seq, e);
+        }
+    }
+
+    private static byte[] encode(Invalidation invalidation) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(invalidation.kind().ordinal());
+            switch (invalidation.kind()) {
+                case CLEAR -> {
+                }
+                case KEY -> {
+                    CacheKey key = invalidation.key();
+                    writeString(out, key.getMethod());
+                    writeString(out, key.getPathAndQuery());
+                    writeString(out, key.getVaryHeaderFingerprint());
+                }
+                default -> writeString(out, invalidation.target());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // writeUTF is limited to 64 KiB, which a path or glob may exceed
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("String of " + length + " bytes overruns the message");
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    private Mac mac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(sharedKey);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e); // every JRE has HmacSHA256
+        }
+    }
+
+    /** Transport callback: applies a message from a peer, in sequence. */
+    void receive(byte[] message) {
+        if (message.length < MAC_BYTES) {
+            corrupt.increment();
+            return;
+        }
+        int length = message.length - MAC_BYTES;
+        Mac mac = mac();
+        mac.update(message, 0, length);
+        if (!MessageDigest.isEqual(mac.doFinal(), Arrays.copyOfRange(message, length, message.length))) {
+            unauthenticated.increment();
+            return;
+        }
+        String sender;
+        long seq;
+        List<Invalidation> invalidations;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(message, 0, length))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                corrupt.increment();
+                return;
+            }
+            sender = in.readUTF();
+            seq = in.readLong();
+            int count = in.readUnsignedShort();
+            invalidations = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                invalidations.add(decode(in));
+            }
+        } catch (IOException | RuntimeException e) {
+            corrupt.increment();
+            return;
+        }
+        if (sender.equals(nodeId)) {
+            return; // our own, echoed back by the group
+        }
+
+        synchronized (lastSequence) {
+            Long last = lastSequence.get(sender);
+            if (last != null && seq <= last) {
+                duplicate.increment();
+                return;
+            }
+            lastSequence.put(sender, seq);
+            if (last != null && seq > last + 1) {
+                gaps.increment(seq - last - 1);
+                log.warn("Missed {} cache invalidation messages from {}; clearing the cache", seq - last - 1,
+                        sender);
+                receiver.accept(Invalidation.clear());
+            }
+            for (Invalidation invalidation : invalidations) {
+                receiver.accept(invalidation);
+            }
+        }
+        received.increment(invalidations.size());
+    }
+
+    private static Invalidation decode(DataInputStream in) throws IOException {
+        Invalidation.Kind kind = Invalidation.Kind.values()[in.readUnsignedByte()];
+        return switch (kind) {
+            case CLEAR -> Invalidation.clear();
+            case KEY -> Invalidation.key(CacheKey.of(readString(in), readString(in), readString(in)));
+            default -> new Invalidation(kind, readString(in), null);
+        };
+    }
+
+    @Override
+    public void start() {
+        try {
+            transport.start(this::receive);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start the cache invalidation transport", e);
+        }
+        long millis = Math.max(1, batchInterval.toMillis());
+        schedule = Schedulers.boundedElastic().schedulePeriodically(this::flushQuietly, millis, millis,
+                TimeUnit.MILLISECONDS);
+        running = true;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Could not flush cache invalidations", e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (schedule != null) {
+            schedule.dispose();
+        }
+        flushQuietly();
+        try {
+            transport.close();
+        } catch (IOException e) {
+            log.warn("Could not close the cache invalidation transport", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Starts before and stops after the web server, so invalidations made while serving reach the peers. */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+}
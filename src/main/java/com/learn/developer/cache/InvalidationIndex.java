@@ -0,0 +1,310 @@
+package com.learn.developer.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+/**
+ * Secondary index of the heap tier for bulk invalidation: a trie of path
+ * segments and a map from {@code Surrogate-Key} tags to keys. Lookups walk only
+ * the matching part of the trie, so their cost follows the number of matches,
+ * not the size of the cache.
+ * <p>
+ * Entries are {@link #add added} after they are put in a cache and
+ * {@link #removed removed} by the cache's removal listener. Both compare the
+ * cached value by identity under the index lock, so an entry replaced or evicted
+ * around its put is never left indexed.
+ */
+public final class InvalidationIndex {
+
+    public static final String SURROGATE_KEY = "Surrogate-Key";
+
+    private static final class Node {
+        private final Node parent;
+        private final String segment;
+        private final Map<String, Node> children = new HashMap<>();
+        private final Set<CacheKey> keys = new HashSet<>();
+
+        private Node(Node parent, String segment) {
+            this.parent = parent;
+            this.segment = segment;
+        }
+    }
+
+    private static final class Entry {
+        private final Cache<CacheKey, CachedResponse> cache;
+        private final CachedResponse value;
+        private final Node node;
+        private final List<String> tags;
+
+        private Entry(Cache<CacheKey, CachedResponse> cache, CachedResponse value, Node node, List<String> tags) {
+            this.cache = cache;
+            this.value = value;
+            this.node = node;
+            this.tags = tags;
+        }
+    }
+
+    /** A matched entry, invalidated outside the lock. */
+    private record Match(Cache<CacheKey, CachedResponse> cache, CacheKey key) {
+    }
+
+    private final Node root = new Node(null, "");
+    private final Map<CacheKey, Entry> entries = new HashMap<>();
+    private final Map<String, Set<CacheKey>> tagged = new HashMap<>();
+
+    /** Surrogate keys of a response: its space-separated {@code Surrogate-Key} values. */
+    public static List<String> tags(CachedResponse value) {
+        List<String> headers = value.getHeaders().get(SURROGATE_KEY);
+        if (headers == null) {
+            return List.of();
+        }
+        List<String> tags = new ArrayList<>();
+        for (String header : headers) {
+            for (String tag : header.trim().split("\\s+")) {
+                if (!tag.isEmpty()) {
+                    tags.add(tag);
+                }
+            }
+        }
+        return tags;
+    }
+
+    /** Indexes an entry just put in {@code cache}, unless it is no longer there. */
+    public synchronized void add(Cache<CacheKey, CachedResponse> cache, CacheKey key, CachedResponse value) {
+        if (cache.asMap().get(key) != value) {
+            return; // replaced or evicted already; its removal was or will be ignored
+        }
+        unlink(key, entries.remove(key));
+
+        Node node = root;
+        for (String segment : segments(key.getPath())) {
+            Node parent = node;
+            node = parent.children.computeIfAbsent(segment, s -> new Node(parent, s));
+        }
+        node.keys.add(key);
+        List<String> tags = tags(value);
+        for (String tag : tags) {
+            tagged.computeIfAbsent(tag, t -> new HashSet<>()).add(key);
+        }
+        entries.put(key, new Entry(cache, value, node, tags));
+    }
+
+    /** Removal listener hook: drops the entry if {@code value} is the one indexed. */
+    synchronized void removed(CacheKey key, CachedResponse value) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.value == value) {
+            entries.remove(key);
+            unlink(key, entry);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Invalidates the entries whose path is {@code prefix} or lies below it, by
+     * whole segments: {@code /users/42} matches {@code /users/42/orders} but not
+     * {@code /users/420}. Returns the number of entries invalidated.
+     */
+    public int invalidatePrefix(String prefix) {
+        List<Match> matches = new ArrayList<>();
+        synchronized (this) {
+            Node node = root;
+            for (String segment : segments(prefix)) {
+                node = node.children.get(segment);
+                if (node == null) {
+                    return 0;
+                }
+            }
+            collect(node, matches);
+        }
+        return invalidate(matches);
+    }
+
+    /**
+     * Invalidates the entries of exactly {@code path}: all of its query strings and
+     * variants, but not the paths below it.
+     */
+    public int invalidatePath(String path) {
+        List<Match> matches = new ArrayList<>();
+        synchronized (this) {
+            Node node = root;
+            for (String segment : segments(path)) {
+                node = node.children.get(segment);
+                if (node == null) {
+                    return 0;
+                }
+            }
+            addMatches(node.keys, matches);
+        }
+        return invalidate(matches);
+    }
+
+    /**
+     * Invalidates the entries whose path matches {@code glob}, segment by segment:
+     * {@code *} and {@code ?} match within a segment and {@code **} matches any
+     * number of segments.
+     */
+    public int invalidateGlob(String glob) {
+        Set<Node> nodes = new LinkedHashSet<>();
+        List<Match> matches = new ArrayList<>();
+        synchronized (this) {
+            match(root, segments(glob), 0, nodes);
+            for (Node node : nodes) {
+                addMatches(node.keys, matches);
+            }
+        }
+        return invalidate(matches);
+    }
+
+    /** Invalidates the entries tagged {@code tag} by their {@code Surrogate-Key} header. */
+    public int invalidateTag(String tag) {
+        List<Match> matches = new ArrayList<>();
+        synchronized (this) {
+            Set<CacheKey> keys = tagged.get(tag);
+            if (keys == null) {
+                return 0;
+            }
+            addMatches(keys, matches);
+        }
+        return invalidate(matches);
+    }
+
+    private void addMatches(Collection<CacheKey> keys, List<Match> matches) {
+        for (CacheKey key : keys) {
+            matches.add(new Match(entries.get(key).cache, key));
+        }
+    }
+
+    private void collect(Node node, List<Match> matches) {
+        addMatches(node.keys, matches);
+        for (Node child : node.children.values()) {
+            collect(child, matches);
+        }
+    }
+
+    private void match(Node node, List<String> pattern, int i, Set<Node> matched) {
+        if (i == pattern.size()) {
+            matched.add(node);
+            return;
+        }
+        String p = pattern.get(i);
+        if (p.equals("**")) {
+            match(node, pattern, i + 1, matched); // zero segments
+            for (Node child : node.children.values()) {
+                match(child, pattern, i, matched); // one more
+            }
+            return;
+        }
+        if (p.indexOf('*') < 0 && p.indexOf('?') < 0) {
+            Node child = node.children.get(p);
+            if (child != null) {
+                match(child, pattern, i + 1, matched);
+            }
+            return;
+        }
+        for (Node child : node.children.values()) {
+            if (globMatches(p, 0, child.segment, 0)) {
+                match(child, pattern, i + 1, matched);
+            }
+        }
+    }
+
+    /** Whether {@code path} and {@code other} have the same segments, as in {@link #invalidatePath}. */
+    public static boolean matchesPath(String path, String other) {
+        return segments(path).equals(segments(other));
+    }
+
+    /** Whether {@code path} is {@code prefix} or lies below it, as in {@link #invalidatePrefix}. */
+    public static boolean matchesPrefix(String path, String prefix) {
+        List<String> segments = segments(path);
+        List<String> wanted = segments(prefix);
+        return segments.size() >= wanted.size() && segments.subList(0, wanted.size()).equals(wanted);
+    }
+
+    /** Whether {@code path} matches {@code glob}, as in {@link #invalidateGlob}. */
+    public static boolean matchesGlob(String path, String glob) {
+        return matchesGlob(segments(path), 0, segments(glob), 0);
+    }
+
+    private static boolean matchesGlob(List<String> path, int si, List<String> pattern, int pi) {
+        if (pi == pattern.size()) {
+            return si == path.size();
+        }
+        String p = pattern.get(pi);
+        if (p.equals("**")) {
+            return matchesGlob(path, si, pattern, pi + 1)
+                    || (si < path.size() && matchesGlob(path, si + 1, pattern, pi));
+        }
+        return si < path.size() && globMatches(p, 0, path.get(si), 0) && matchesGlob(path, si + 1, pattern, pi + 1);
+    }
+
+    private static boolean globMatches(String p, int pi, String s, int si) {
+        while (pi < p.length()) {
+            char c = p.charAt(pi);
+            if (c == '*') {
+                for (int k = si; k <= s.length(); k++) {
+                    if (globMatches(p, pi + 1, s, k)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (si == s.length() || (c != '?' && c != s.charAt(si))) {
+                return false;
+            }
+            pi++;
+            si++;
+        }
+        return si == s.length();
+    }
+
+    private static int invalidate(List<Match> matches) {
+        int removed = 0;
+        for (Match m : matches) {
+            // the removal listener unlinks it; entries invalidated meanwhile are not counted
+            if (m.cache.asMap().remove(m.key) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private void unlink(CacheKey key, Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        for (String tag : entry.tags) {
+            Set<CacheKey> keys = tagged.get(tag);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                tagged.remove(tag);
+            }
+        }
+        Node node = entry.node;
+        node.keys.remove(key);
+        // prune the branch up to the first node still in use
+        while (node.parent != null && node.keys.isEmpty() && node.children.isEmpty()) {
+            node.parent.children.remove(node.segment);
+            node = node.parent;
+        }
+    }
+
+    static List<String> segments(String path) {
+        List<String> segments = new ArrayList<>();
+        for (String s : path.split("/")) {
+            if (!s.isEmpty()) {
+                segments.add(s);
+            }
+        }
+        return segments;
+    }
+}
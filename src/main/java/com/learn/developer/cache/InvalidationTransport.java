@@ -0,0 +1,21 @@
+package com.learn.developer.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Carries the messages of the {@link InvalidationBus} between replicas. Delivery
+ * may be lossy, duplicated or reordered; the bus detects that by sequence number.
+ */
+public interface InvalidationTransport extends Closeable {
+
+    /**
+     * Starts delivering the messages sent by any member of the group, possibly
+     * including this one, to {@code receiver}.
+     */
+    void start(Consumer<byte[]> receiver) throws IOException;
+
+    /** Sends {@code message} to every member of the group. */
+    void send(byte[] message) throws IOException;
+}
@@ -0,0 +1,45 @@
+package com.learn.developer.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-process {@link InvalidationTransport}: transports of one {@link Group} see
+ * each other's messages, as the members of a multicast group would. Delivery is
+ * synchronous and lossless, which makes it suited to tests and single-JVM setups.
+ */
+public final class LoopbackTransport implements InvalidationTransport {
+
+    /** Group used by the {@code loopback} transport of {@code gateway.cache.cluster}. */
+    public static final Group DEFAULT_GROUP = new Group();
+
+    public static final class Group {
+        private final List<LoopbackTransport> members = new CopyOnWriteArrayList<>();
+    }
+
+    private final Group group;
+    private volatile Consumer<byte[]> receiver;
+
+    public LoopbackTransport(Group group) {
+        this.group = group;
+    }
+
+    @Override
+    public void start(Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+        group.members.add(this);
+    }
+
+    @Override
+    public void send(byte[] message) {
+        for (LoopbackTransport member : group.members) {
+            member.receiver.accept(message.clone());
+        }
+    }
+
+    @Override
+    public void close() {
+        group.members.remove(this);
+    }
+}
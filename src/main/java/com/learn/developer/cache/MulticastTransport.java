@@ -0,0 +1,124 @@
+package com.learn.developer.cache;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+/**
+ * {@link InvalidationTransport} over UDP multicast: one datagram per message,
+ * received by every replica that joined the group, this one included. Datagrams
+ * can be lost; the bus treats a lost message as a gap.
+ */
+public final class MulticastTransport implements InvalidationTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(MulticastTransport.class);
+
+    private static final int MAX_DATAGRAM_BYTES = 65507;
+
+    private final InetSocketAddress group;
+    private final NetworkInterface networkInterface;
+    private final int timeToLive;
+    private DatagramChannel channel;
+
+    public MulticastTransport(CacheProperties.Cluster props) throws IOException {
+        this.group = new InetSocketAddress(InetAddress.getByName(props.getGroup()), props.getPort());
+        this.networkInterface = networkInterface(props.getNetworkInterface());
+        this.timeToLive = props.getTimeToLive();
+    }
+
+    private static NetworkInterface networkInterface(String name) throws SocketException {
+        if (StringUtils.hasText(name)) {
+            NetworkInterface ni = NetworkInterface.getByName(name);
+            if (ni == null) {
+                throw new SocketException("no network interface " + name);
+            }
+            return ni;
+        }
+        NetworkInterface loopback = null;
+        for (NetworkInterface ni : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (!ni.isUp() || !ni.supportsMulticast()) {
+                continue;
+            }
+            if (!ni.isLoopback()) {
+                return ni;
+            }
+            loopback = ni;
+        }
+        if (loopback == null) {
+            throw new SocketException("no multicast-capable network interface");
+        }
+        return loopback;
+    }
+
+    @Override
+    public synchronized void start(Consumer<byte[]> receiver) throws IOException {
+        StandardProtocolFamily family = group.getAddress() instanceof Inet6Address
+                ? StandardProtocolFamily.INET6
+                : StandardProtocolFamily.INET;
+        channel = DatagramChannel.open(family)
+                .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                .bind(new InetSocketAddress(group.getPort()))
+                .setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface)
+                .setOption(StandardSocketOptions.IP_MULTICAST_TTL, timeToLive)
+                .setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+        channel.join(group.getAddress(), networkInterface);
+
+        DatagramChannel receiving = channel;
+        Thread receiverThread = new Thread(() -> receive(receiving, receiver), "cache-invalidation-receiver");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+        log.info("Cache invalidations use multicast group {} on {}", group, networkInterface.getName());
+    }
+
+    private static void receive(DatagramChannel channel, Consumer<byte[]> receiver) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_BYTES);
+        while (channel.isOpen()) {
+            try {
+                buffer.clear();
+                channel.receive(buffer);
+                buffer.flip();
+                byte[] message = new byte[buffer.remaining()];
+                buffer.get(message);
+                receiver.accept(message);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not receive a cache invalidation", e);
+            }
+        }
+    }
+
+    @Override
+    public void send(byte[] message) throws IOException {
+        DatagramChannel c;
+        synchronized (this) {
+            c = channel;
+        }
+        if (c == null) {
+            throw new ClosedChannelException();
+        }
+        c.send(ByteBuffer.wrap(message), group);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
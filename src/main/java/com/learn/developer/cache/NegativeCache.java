@@ -0,0 +1,84 @@
+package com.learn.developer.cache;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Entries for the non-200 statuses configured under {@code gateway.cache.negative},
+ * such as the 404s of clients probing missing ids and permanent redirects. They
+ * live in a cache with a budget of its own, so that they cannot push out real
+ * content, and each status has a short TTL capping the freshness the upstream
+ * gives it. They are never served stale or revalidated: once expired, the next
+ * request goes upstream.
+ */
+public final class NegativeCache {
+
+    private final Map<Integer, Long> ttlSeconds = new HashMap<>();
+    private final Cache<CacheKey, CachedResponse> cache;
+    private final ResponseExpiry expiry;
+    private final Counter hits;
+    private final Counter misses;
+
+    public NegativeCache(CacheProperties.Negative props, ResponseExpiry expiry, InvalidationIndex index,
+            PrincipalPartitions partitions, MeterRegistry registry) {
+        props.getTtls().forEach((status, ttl) -> ttlSeconds.put(status, ttl.getSeconds()));
+        this.expiry = expiry;
+        this.cache = CacheConfig.newCache(props.getMaxWeightBytes(), expiry, null, index, partitions,
+                Counter.builder("gateway.cache.negative.evictions")
+                        .description("Negative entries evicted to stay within their weight budget")
+                        .register(registry));
+        this.hits = requests(registry, "hit");
+        this.misses = requests(registry, "miss");
+        Gauge.builder("gateway.cache.negative.size", cache, c -> c.estimatedSize()).register(registry);
+        Gauge.builder("gateway.cache.negative.weight.bytes", cache, CacheConfig::weightedSize)
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    private static Counter requests(MeterRegistry registry, String result) {
+        return Counter.builder("gateway.cache.negative.requests")
+                .description("Lookups of negative entries after a miss of the main cache")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /** Whether responses with {@code status} are stored here. */
+    public boolean caches(int status) {
+        return ttlSeconds.containsKey(status);
+    }
+
+    /** Freshness of a stored {@code status}: the upstream's, capped by the status TTL. */
+    public long lifetimeSeconds(int status, long upstreamSeconds) {
+        long ttl = ttlSeconds.get(status);
+        return upstreamSeconds < 0 || upstreamSeconds >= ttl ? ttl : upstreamSeconds;
+    }
+
+    /**
+     * A fresh entry for {@code key}, or for the shared partition of a partitioned
+     * key, retained for writing; or {@code null}.
+     */
+    public CachedResponse get(CacheKey key) {
+        CachedResponse cached = fresh(key);
+        if (cached == null && key.getPartition() != null) {
+            cached = fresh(key.withPartition(PrincipalPartitions.SHARED));
+        }
+        (cached != null ? hits : misses).increment();
+        return cached;
+    }
+
+    private CachedResponse fresh(CacheKey key) {
+        CachedResponse cached = cache.getIfPresent(key);
+        return cached != null && expiry.isFresh(cached, Instant.now()) && cached.retain() ? cached : null;
+    }
+
+    public Cache<CacheKey, CachedResponse> getCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,110 @@
+package com.learn.developer.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Partitions the entries of requests with {@code Authorization}: each principal
+ * gets its own partition, identified by a digest of its credential, so
+ * credentials never reach a {@link CacheKey}. Responses
+ * the upstream marks {@code public} or {@code s-maxage} go to the
+ * {@link #SHARED} partition instead, which every principal reads.
+ * <p>
+ * Private entries are charged to their principal, which may hold at most
+ * {@code max-weight-per-principal} bytes, and credited by the cache's removal
+ * listener. Private entries stay in the heap tier: they are neither demoted to
+ * the disk tier nor written to a snapshot, which would insert them back
+ * without charging them.
+ */
+public final class PrincipalPartitions {
+
+    /** Partition of the responses every principal may be served. */
+    public static final String SHARED = "*";
+
+    private static final int DIGEST_BYTES = 16;
+
+    private final long maxWeightPerPrincipal;
+    private final ConcurrentHashMap<String, Long> weights = new ConcurrentHashMap<>();
+
+    public PrincipalPartitions(CacheProperties.Authorized props, MeterRegistry registry) {
+        this.maxWeightPerPrincipal = props.getMaxWeightPerPrincipal();
+        Gauge.builder("gateway.cache.principals", weights, w -> w.size())
+                .description("Principals holding private entries")
+                .register(registry);
+    }
+
+    /** The partition of {@code request}'s principal, or {@code null} if it has no {@code Authorization}. */
+    public String of(ServerHttpRequest request) {
+        return of(request.getHeaders());
+    }
+
+    /** The partition of the principal of a request with {@code headers}, or {@code null}. */
+    public String of(HttpHeaders headers) {
+        String authorization = headers.getFirst(HttpHeaders.AUTHORIZATION);
+        if (authorization == null) {
+            return null;
+        }
+        return digest(authorization.trim());
+    }
+
+    private static String digest(String input) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(input.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, DIGEST_BYTES));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE has SHA-256
+        }
+    }
+
+    /** Charges {@code weight} bytes to {@code partition}; fails if that would exceed its limit. */
+    public boolean tryCharge(String partition, long weight) {
+        if (SHARED.equals(partition)) {
+            return true;
+        }
+        boolean[] charged = {false};
+        weights.compute(partition, (p, held) -> {
+            long current = held == null ? 0 : held;
+            if (current + weight > maxWeightPerPrincipal) {
+                return held;
+            }
+            charged[0] = true;
+            return current + weight;
+        });
+        return charged[0];
+    }
+
+    /** Charges {@code weight} bytes to {@code partition} even beyond its limit. */
+    public void charge(String partition, long weight) {
+        if (!SHARED.equals(partition)) {
+            weights.merge(partition, weight, Long::sum);
+        }
+    }
+
+    /** Credits the partition of a removed entry with its weight. */
+    void removed(CacheKey key, CachedResponse value) {
+        if (isPrivate(key)) {
+            long weight = CacheConfig.weight(key, value);
+            weights.computeIfPresent(key.getPartition(), (p, held) -> held > weight ? held - weight : null);
+        }
+    }
+
+    /** Whether {@code key} is in a principal's own partition, as opposed to none or {@link #SHARED}. */
+    static boolean isPrivate(CacheKey key) {
+        return key.getPartition() != null && !SHARED.equals(key.getPartition());
+    }
+
+    /** Bytes charged to {@code partition}. */
+    public long weightOf(String partition) {
+        return weights.getOrDefault(partition, 0L);
+    }
+}
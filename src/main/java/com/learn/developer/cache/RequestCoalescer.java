@@ -0,0 +1,101 @@
+package com.learn.developer.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Single-flight registry for cache misses. The first miss for a key becomes the
+ * leader and fetches from upstream; concurrent misses for the same key join the
+ * leader's flight and receive the stored response, or nothing if the leader
+ * could not produce a cacheable one.
+ */
+public final class RequestCoalescer {
+
+    public static final class Flight {
+        private final CacheKey key;
+        private final Sinks.One<CachedResponse> sink;
+        private final boolean leader;
+
+        private Flight(CacheKey key, Sinks.One<CachedResponse> sink, boolean leader) {
+            this.key = key;
+            this.sink = sink;
+            this.leader = leader;
+        }
+
+        public boolean isLeader() {
+            return leader;
+        }
+
+        public Mono<CachedResponse> result() {
+            return sink.asMono();
+        }
+
+        /** Whether any follower is waiting for the leader's outcome yet. */
+        public boolean hasFollowers() {
+            return sink.currentSubscriberCount() > 0;
+        }
+    }
+
+    private final Map<CacheKey, Sinks.One<CachedResponse>> inflight = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+    private final Counter fallbacks;
+
+    public RequestCoalescer(MeterRegistry registry) {
+        this.coalesced = Counter.builder("gateway.cache.coalesced")
+                .description("Misses that joined an in-flight upstream fetch for the same key")
+                .register(registry);
+        this.fallbacks = Counter.builder("gateway.cache.coalesced.fallback")
+                .description("Coalesced misses that had to fetch from upstream themselves")
+                .register(registry);
+        Gauge.builder("gateway.cache.inflight", inflight, Map::size).register(registry);
+    }
+
+    public Flight join(CacheKey key) {
+        Sinks.One<CachedResponse> candidate = Sinks.one();
+        Sinks.One<CachedResponse> existing = inflight.putIfAbsent(key, candidate);
+        if (existing == null) {
+            return new Flight(key, candidate, true);
+        }
+        coalesced.increment();
+        return new Flight(key, existing, false);
+    }
+
+    /**
+     * Starts a flight only if none is running for the key, for callers that have
+     * nothing to wait for (such as background refreshes). Returns {@code null}
+     * when another flight is already in progress.
+     */
+    public Flight lead(CacheKey key) {
+        Sinks.One<CachedResponse> candidate = Sinks.one();
+        return inflight.putIfAbsent(key, candidate) == null ? new Flight(key, candidate, true) : null;
+    }
+
+    /**
+     * Publishes the leader's outcome to its followers. A {@code null} value tells
+     * followers to fall back to their own upstream call. Only the first call for a
+     * flight has any effect.
+     */
+    public void complete(Flight flight, CachedResponse value) {
+        if (!flight.leader) {
+            return;
+        }
+        // Unregister before emitting so that later misses start a new flight
+        // instead of joining one that has already finished.
+        inflight.remove(flight.key, flight.sink);
+        if (value != null) {
+            flight.sink.tryEmitValue(value);
+        } else {
+            flight.sink.tryEmitEmpty();
+        }
+    }
+
+    public void recordFallback() {
+        fallbacks.increment();
+    }
+}
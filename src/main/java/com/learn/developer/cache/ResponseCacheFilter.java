@@ -1,53 +1,102 @@
 package com.learn.developer.cache;
 
-import java.io.ByteArrayOutputStream;
+import java.net.URI;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
 import org.springframework.core.Ordered;
 import org.springframework.core.io.buffer.DataBuffer;
-import org.springframework.core.io.buffer.DataBufferFactory;
 import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
 import org.springframework.stereotype.Component;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
 import org.springframework.web.server.ServerWebExchange;
 
 import com.github.benmanes.caffeine.cache.Cache;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+/**
+ * Caches GET responses under the {@link CachePolicy} of their route: the one a
+ * {@code ResponseCache} route filter put on the exchange, or the default one.
+ */
 @Component
 public class ResponseCacheFilter implements GlobalFilter, Ordered {
 
-    private static final String X_CACHE = "X-Cache";
+    /** Runs just before the response is written, so that it can capture the body. */
+    public static final int ORDER = NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1;
+
+    static final String X_CACHE = "X-Cache";
     private static final String X_BYPASS_CACHE = "X-Bypass-Cache";
+    private static final long MAX_STALE_SECONDS = Duration.ofDays(7).getSeconds();
 
-    private final Cache<CacheKey, CachedResponse> cache;
-    private final CacheProperties props;
+    private static final Logger log = LoggerFactory.getLogger(ResponseCacheFilter.class);
 
-    public ResponseCacheFilter(Cache<CacheKey, CachedResponse> cache, CacheProperties props) {
-        this.cache = cache;
+    private final CachePolicy defaultPolicy;
+    private final CacheProperties props;
+    private final RequestCoalescer coalescer;
+    private final ResponseExpiry expiry;
+    private final BodyStore bodyStore;
+    private final DiskTier diskTier;
+    private final InvalidationIndex invalidationIndex;
+    private final CacheInvalidator invalidator;
+    private final CachePeers peers;
+    private final CacheAdmission admission;
+    private final PrincipalPartitions partitions;
+    private final NegativeCache negativeCache;
+    private final List<MediaType> compressibleTypes;
+    private final VaryNormalizer varyNormalizer;
+    private final VaryIndex varyIndex;
+
+    public ResponseCacheFilter(CachePolicy defaultPolicy, CacheProperties props,
+            RequestCoalescer coalescer, ResponseExpiry expiry, BodyStore bodyStore,
+            ObjectProvider<DiskTier> diskTier, InvalidationIndex invalidationIndex,
+            CacheInvalidator invalidator, ObjectProvider<CachePeers> peers,
+            ObjectProvider<CacheAdmission> admission, ObjectProvider<PrincipalPartitions> partitions,
+            ObjectProvider<NegativeCache> negativeCache, ObjectProvider<VaryIndex> varyIndex) {
+        this.defaultPolicy = defaultPolicy;
         this.props = props;
+        this.coalescer = coalescer;
+        this.expiry = expiry;
+        this.compressibleTypes = MediaType.parseMediaTypes(props.getCompression().getMimeTypes());
+        this.bodyStore = bodyStore;
+        this.diskTier = diskTier.getIfAvailable();
+        this.invalidationIndex = invalidationIndex;
+        this.invalidator = invalidator;
+        this.peers = peers.getIfAvailable();
+        this.admission = admission.getIfAvailable();
+        this.partitions = partitions.getIfAvailable();
+        this.negativeCache = negativeCache.getIfAvailable();
+        this.varyNormalizer = VaryNormalizer.from(props.getVary());
+        this.varyIndex = varyIndex.getIfAvailable();
     }
 
     @Override
     public int getOrder() {
-        return NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1;
+        return ORDER;
     }
 
     @Override
@@ -58,80 +107,427 @@ public class ResponseCacheFilter implements GlobalFilter, Ordered {
 
         HttpMethod method = exchange.getRequest().getMethod();
         if (method != HttpMethod.GET) {
+            if (props.isInvalidateOnWrite() && !isSafe(method)) {
+                exchange.getResponse().beforeCommit(() -> Mono.fromRunnable(() -> invalidateAfterWrite(exchange)));
+            }
             return chain.filter(exchange);
         }
 
+        long start = System.nanoTime();
+        CachePolicy policy = exchange.getAttributeOrDefault(CachePolicy.ATTRIBUTE, defaultPolicy);
+        CacheMetrics metrics = policy.metrics();
         String reqCacheCtl = exchange.getRequest().getHeaders().getFirst(HttpHeaders.CACHE_CONTROL);
         if (reqCacheCtl != null && reqCacheCtl.toLowerCase(Locale.ROOT).contains("no-cache")) {
+            metrics.bypassed(CacheMetrics.Bypass.NO_CACHE);
             return chain.filter(exchange);
         }
 
         if ("true".equalsIgnoreCase(exchange.getRequest().getHeaders().getFirst(X_BYPASS_CACHE))) {
+            metrics.bypassed(CacheMetrics.Bypass.BYPASS_HEADER);
             return chain.filter(exchange);
         }
 
-        if (props.isSkipWhenAuthorization()
+        if (policy.isSkipWhenAuthorization() && partitions == null
                 && exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION) != null) {
+            metrics.bypassed(CacheMetrics.Bypass.AUTHORIZATION);
             return chain.filter(exchange);
         }
 
-        CacheKey key = CacheKey.from(exchange, props.getVaryHeaders());
-        CachedResponse hit = cache.getIfPresent(key);
-        if (hit != null) {
-            return writeFromCache(exchange, hit);
+        CacheKey key = keyOf(exchange, policy);
+        CachedResponse cached = policy.getCache().getIfPresent(key);
+        // retain() fails if a concurrent eviction already freed an off-heap body
+        if (cached != null && cached.retain()) {
+            policy.recordHit();
+            return serve(exchange, chain, policy, key, cached, "", start);
+        }
+        if (key.getPartition() != null) {
+            // responses the upstream marked public are read by every principal
+            CacheKey shared = key.withPartition(PrincipalPartitions.SHARED);
+            CachedResponse sharedEntry = policy.getCache().getIfPresent(shared);
+            if (sharedEntry != null && sharedEntry.retain()) {
+                policy.recordHit();
+                // refreshes run under the requester's key, as the response may no longer be public
+                return serve(exchange, chain, policy, key, sharedEntry, "", start);
+            }
+        }
+        if (negativeCache != null) {
+            CachedResponse negative = negativeCache.get(key);
+            if (negative != null) {
+                return metrics.timeHit(writeFromCache(exchange, negative, "HIT"), start);
+            }
+        }
+        if (diskTier == null) {
+            policy.recordMiss();
+            return metrics.timeMiss(fetchMissing(exchange, chain, policy, key), start);
         }
 
-        ServerHttpResponse original = exchange.getResponse();
-        DataBufferFactory bufferFactory = original.bufferFactory();
+        return diskTier.promote(key, policy.getCache())
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(promoted -> {
+                    if (promoted.isEmpty()) {
+                        policy.recordMiss();
+                        return metrics.timeMiss(fetchMissing(exchange, chain, policy, key), start);
+                    }
+                    policy.recordHit();
+                    return serve(exchange, chain, policy, key, promoted.get(), "-L2", start);
+                });
+    }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.min(props.getMaxBodyBytes(), 512 * 1024));
-        AtomicBoolean overflow = new AtomicBoolean(false);
+    /**
+     * Answers from a retained entry of the tier named by {@code tier}, revalidating
+     * it if stale, and times the answer from {@code start}.
+     */
+    private Mono<Void> serve(ServerWebExchange exchange, GatewayFilterChain chain, CachePolicy policy,
+            CacheKey key, CachedResponse cached, String tier, long start) {
+        Instant now = Instant.now();
+        if (!cached.isNoCache() && expiry.isFresh(cached, now)) {
+            if (isDueForRefreshAhead(cached, now)) {
+                policy.metrics().recordRefreshAhead();
+                revalidateInBackground(exchange, chain, policy, key, cached);
+            }
+            return policy.metrics().timeHit(writeFromCache(exchange, cached, "HIT" + tier), start);
+        }
+        if (!cached.isNoCache() && expiry.isWithinStaleWhileRevalidate(cached, now)) {
+            revalidateInBackground(exchange, chain, policy, key, cached);
+            return policy.metrics().timeHit(writeFromCache(exchange, cached, "STALE" + tier), start);
+        }
+        // keep the stale entry alive for conditional revalidation and stale-if-error;
+        // no-cache entries are kept for their validators only and take this path on every use
+        return policy.metrics().timeMiss(fetch(exchange, chain, policy, key, cached)
+                .doFinally(signal -> cached.release()), start);
+    }
 
-        ServerHttpResponseDecorator decorated = new ServerHttpResponseDecorator(original) {
+    /**
+     * Whether a hot entry has entered the last part of its freshness lifetime, so
+     * that one background fetch should replace it before it expires. Only the
+     * first caller for an entry gets {@code true}.
+     */
+    private boolean isDueForRefreshAhead(CachedResponse cached, Instant now) {
+        CacheProperties.RefreshAhead refreshAhead = props.getRefreshAhead();
+        return refreshAhead.isEnabled()
+                && cached.recordRead() >= refreshAhead.getMinReads()
+                && expiry.isDueForRefresh(cached, now, refreshAhead.getFraction())
+                && cached.claimRefresh();
+    }
 
-            @Override
-            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
-                Flux<? extends DataBuffer> source = Flux.from(body);
+    /**
+     * Fetches an entry missing from every local tier: from the peer owning its key
+     * in peer mode, or else from upstream, which is also the fallback when the
+     * peer fails before answering.
+     */
+    private Mono<Void> fetchMissing(ServerWebExchange exchange, GatewayFilterChain chain, CachePolicy policy,
+            CacheKey key) {
+        if (peers == null) {
+            return fetch(exchange, chain, policy, key, null);
+        }
+        if (CachePeers.isFromPeer(exchange.getRequest())) {
+            return fetch(CachePeers.withoutPeerHeader(exchange), chain, policy, key, null);
+        }
+        String owner = peers.ownerOf(exchange.getRequest(), key);
+        if (owner == null) {
+            return fetch(exchange, chain, policy, key, null);
+        }
+        return peers.forward(exchange, owner)
+                .onErrorResume(e -> !exchange.getResponse().isCommitted(), e -> {
+                    peers.failed(owner, e);
+                    return fetch(exchange, chain, policy, key, null);
+                });
+    }
+
+    /**
+     * Fetches a missing or expired entry, sharing one upstream call among
+     * concurrent misses. Admission control decides only whether the leader's
+     * response is stored: one it turns away is still shared with the followers
+     * already waiting, so a burst of misses for an unpopular key costs one
+     * upstream call all the same.
+     */
+    private Mono<Void> fetch(ServerWebExchange exchange, GatewayFilterChain chain, CachePolicy policy,
+            CacheKey key, CachedResponse stale) {
+        if (!props.getCoalescing().isEnabled()) {
+            return fetchAndStore(exchange, chain, policy, key, null, stale, admits(key, stale));
+        }
 
-                Flux<DataBuffer> intercepted = source.map(dataBuffer -> {
-                    if (overflow.get()) {
-                        return dataBuffer;
+        RequestCoalescer.Flight flight = coalescer.join(key);
+        if (flight.isLeader()) {
+            return fetchAndStore(exchange, chain, policy, key, flight, stale, admits(key, stale))
+                    .doFinally(signal -> coalescer.complete(flight, null));
+        }
+
+        return flight.result()
+                .timeout(props.getCoalescing().getMaxWait(), Mono.empty())
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(shared -> {
+                    if (shared.isPresent() && isVariantFor(exchange, policy, key, shared.get())
+                            && shared.get().retain()) {
+                        return writeFromCache(exchange, shared.get(), "COALESCED");
                     }
+                    coalescer.recordFallback();
+                    return fetchAndStore(exchange, chain, policy, key, null, stale, admits(key, stale));
+                });
+    }
+
+    // a stale entry being refreshed was admitted already
+    private boolean admits(CacheKey key, CachedResponse stale) {
+        return stale != null || admission == null || admission.admit(key);
+    }
+
+    /**
+     * Whether the response a flight's leader stored is also the variant that
+     * {@code exchange} selects. Followers join by a key made before the upstream's
+     * {@code Vary} was known, which may tell their request apart from the leader's,
+     * so it must be stored under the very key their request maps to now - or,
+     * when admission kept it out of the cache, not vary at all.
+     */
+    private boolean isVariantFor(ServerWebExchange exchange, CachePolicy policy, CacheKey key,
+            CachedResponse shared) {
+        if (varyIndex == null) {
+            return true;
+        }
+        HttpHeaders headers = shared.getHeaders();
+        List<String> vary = policy.keyHeaders(headers.getVary());
+        if (vary.isEmpty()) {
+            return true;
+        }
+        CacheKey variant = key.resource().withVary(exchange.getRequest().getHeaders(), vary, varyNormalizer);
+        variant = storeKey(exchange, variant, CacheDirectives.parse(headers.get(HttpHeaders.CACHE_CONTROL)), headers);
+        CachedResponse current = shared.getStatusCode() == 200
+                ? policy.getCache().getIfPresent(variant)
+                : negativeCache.getCache().getIfPresent(variant);
+        return current == shared;
+    }
 
-                    int readable = dataBuffer.readableByteCount();
-                    if (baos.size() + readable <= props.getMaxBodyBytes()) {
-                        byte[] bytes = new byte[readable];
-                        dataBuffer.read(bytes);
-                        DataBufferUtils.release(dataBuffer);
-                        baos.write(bytes, 0, bytes.length);
-                        return bufferFactory.wrap(bytes);
+    /**
+     * Refreshes a stale or soon-to-expire entry by routing a detached copy of the
+     * request while the client is answered from the cached entry. At most one refresh per key runs at
+     * a time; misses that arrive meanwhile join it like any other flight.
+     */
+    private void revalidateInBackground(ServerWebExchange exchange, GatewayFilterChain chain, CachePolicy policy,
+            CacheKey key, CachedResponse stale) {
+        RequestCoalescer.Flight flight = coalescer.lead(key);
+        if (flight == null) {
+            return;
+        }
+
+        CachedResponse validated = stale.retain() ? stale : null;
+        fetchAndStore(new DetachedExchange(exchange), chain, policy, key, flight, validated, true)
+                .timeout(props.getStale().getRevalidateTimeout())
+                .doFinally(signal -> {
+                    coalescer.complete(flight, null);
+                    if (validated != null) {
+                        validated.release();
                     }
+                })
+                .subscribe(null, e -> log.debug("Background revalidation of {} failed", key, e));
+    }
 
-                    overflow.set(true);
-                    return dataBuffer;
-                });
+    /**
+     * Routes the request upstream and stores a cacheable response while it streams
+     * to the client, then completes {@code flight}, if any, with it. When
+     * admission turned the response away, it is not stored, but still captured
+     * for the followers of {@code flight} if there are any.
+     * When a stale entry is given, the upstream request is made conditional on its
+     * validators, a 304 refreshes the entry without sending the body again, and -
+     * within its stale-if-error window - failures are answered with the stale
+     * entry. The caller must hold a reference to the stale entry until the
+     * returned publisher terminates.
+     */
+    private Mono<Void> fetchAndStore(ServerWebExchange exchange, GatewayFilterChain chain, CachePolicy policy,
+            CacheKey key, RequestCoalescer.Flight flight, CachedResponse stale, boolean admitted) {
+        CachedResponse staleIfError = stale != null && !stale.isNoCache()
+                && expiry.isWithinStaleIfError(stale, Instant.now())
+                ? stale
+                : null;
+        ServerHttpResponse original = exchange.getResponse();
+        AtomicBoolean responded = new AtomicBoolean(false);
+        AtomicReference<CachedResponse> stored = new AtomicReference<>();
 
-                return super.writeWith(intercepted)
-                        .doOnSuccess(ignored -> {
-                            if (!overflow.get()) {
-                                maybeStore(exchange, baos.toByteArray());
+        ServerHttpResponseDecorator decorated = new ServerHttpResponseDecorator(original) {
+
+            @Override
+            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                responded.set(true);
+                HttpStatusCode status = getStatusCode();
+                if (stale != null && status != null && status.value() == HttpStatus.NOT_MODIFIED.value()) {
+                    return Flux.from(body)
+                            .doOnNext(DataBufferUtils::release)
+                            .then(Mono.defer(() -> {
+                                CachedResponse refreshed = storeRevalidated(exchange, policy, key, stale);
+                                complete(flight, refreshed);
+                                exchange.getResponse().getHeaders().clear();
+                                CachedResponse served = refreshed != null && refreshed.retain() ? refreshed : stale;
+                                if (served == stale) {
+                                    stale.retain();
+                                }
+                                return writeFromCache(exchange, served, "REVALIDATED");
+                            }));
+                }
+                if (staleIfError != null && status != null && status.is5xxServerError()) {
+                    return Flux.from(body)
+                            .doOnNext(DataBufferUtils::release)
+                            .then(Mono.defer(() -> writeStale(exchange, staleIfError)));
+                }
+
+                CacheMetrics.Bypass uncapturable = uncapturable(policy, status, getHeaders());
+                if (uncapturable == null && !admitted && (flight == null || !flight.hasFollowers())) {
+                    uncapturable = CacheMetrics.Bypass.ADMISSION; // nobody to share it with
+                }
+                if (uncapturable != null) {
+                    policy.metrics().bypassed(uncapturable);
+                    return super.writeWith(body)
+                            .doOnSuccess(ignored -> complete(flight, null));
+                }
+
+                // the client gets the upstream buffers unchanged while the capture shares them
+                BodyCapture capture = new BodyCapture(policy.getMaxBodyBytes());
+                long contentLength = getHeaders().getContentLength();
+                AtomicBoolean captured = new AtomicBoolean(false);
+                Runnable store = () -> {
+                    if (!captured.compareAndSet(false, true)) {
+                        return;
+                    }
+                    if (capture.isComplete()) {
+                        policy.metrics().recordCaptured(capture.size());
+                        stored.set(maybeStore(exchange, policy, key, capture, admitted));
+                    } else {
+                        policy.metrics().bypassed(CacheMetrics.Bypass.OVERFLOW);
+                    }
+                };
+                // Store before the last chunk is passed on, so a client that saw the whole
+                // response finds the entry on its next request: with a Content-Length the
+                // client is done at the last byte, before the upstream body completes.
+                Flux<DataBuffer> intercepted = Flux.<DataBuffer>from(body)
+                        .doOnNext(buffer -> {
+                            capture.add(buffer);
+                            if (capture.size() == contentLength) {
+                                store.run();
                             }
-                        });
+                        })
+                        .doOnComplete(store)
+                        .doFinally(signal -> capture.release());
+
+                return super.writeWith(intercepted)
+                        .doOnSuccess(ignored -> complete(flight, stored.get()));
             }
         };
 
-        return chain.filter(exchange.mutate().response(decorated).build());
+        ServerHttpRequest request = stale != null && stale.hasValidators()
+                ? conditionalRequest(exchange.getRequest(), stale)
+                : exchange.getRequest();
+        Mono<Void> routed = chain.filter(exchange.mutate().request(request).response(decorated).build());
+        if (staleIfError == null) {
+            return routed;
+        }
+
+        // Only waiting for the upstream's response headers is bounded; once the
+        // response started streaming to the client it is left alone.
+        Mono<Long> headersTimeout = Mono.delay(props.getStale().getUpstreamTimeout())
+                .filter(tick -> !responded.get());
+        return routed
+                .timeout(headersTimeout.switchIfEmpty(Mono.never()))
+                .onErrorResume(e -> original.isCommitted() ? Mono.error(e) : writeStale(exchange, staleIfError));
+    }
+
+    private static boolean isSafe(HttpMethod method) {
+        return method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.OPTIONS
+                || method == HttpMethod.TRACE;
+    }
+
+    /**
+     * Once a 2xx response to an unsafe request is known, invalidates in every tier,
+     * and on the other replicas, the target path, its parent collection and the
+     * same-origin {@code Location} and {@code Content-Location} targets (RFC 9111
+     * §4.4). Paths are matched with all their query strings and variants. Runs on
+     * the event loop, so only the heap tiers are invalidated before the response
+     * is written; the disk tier and the replicas follow on another thread.
+     */
+    private void invalidateAfterWrite(ServerWebExchange exchange) {
+        HttpStatusCode status = exchange.getResponse().getStatusCode();
+        if (status == null || !status.is2xxSuccessful()) {
+            return;
+        }
+
+        URI target = exchange.getRequest().getURI();
+        List<String> paths = new ArrayList<>();
+        paths.add(target.getRawPath());
+        List<String> segments = InvalidationIndex.segments(target.getRawPath());
+        if (segments.size() > 1) {
+            paths.add("/" + String.join("/", segments.subList(0, segments.size() - 1)));
+        }
+        HttpHeaders headers = exchange.getResponse().getHeaders();
+        addSameOrigin(paths, target, headers.getFirst(HttpHeaders.LOCATION));
+        addSameOrigin(paths, target, headers.getFirst(HttpHeaders.CONTENT_LOCATION));
+
+        int invalidated = 0;
+        for (String path : paths) {
+            invalidated += invalidator.invalidateSoon(Invalidation.path(path));
+        }
+        log.debug("{} {} invalidated {} cached responses under {}", exchange.getRequest().getMethod(), target,
+                invalidated, paths);
+    }
+
+    private static void addSameOrigin(List<String> paths, URI target, String reference) {
+        if (reference == null || reference.isBlank()) {
+            return;
+        }
+        URI resolved;
+        try {
+            resolved = target.resolve(reference.trim());
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        // other origins are not ours to purge, and must not be purgeable by a response
+        if (Objects.equals(resolved.getScheme(), target.getScheme())
+                && Objects.equals(resolved.getRawAuthority(), target.getRawAuthority())
+                && resolved.getRawPath() != null && !paths.contains(resolved.getRawPath())) {
+            paths.add(resolved.getRawPath());
+        }
+    }
+
+    private ServerHttpRequest conditionalRequest(ServerHttpRequest request, CachedResponse stale) {
+        return request.mutate()
+                .headers(h -> {
+                    h.remove(HttpHeaders.IF_NONE_MATCH);
+                    h.remove(HttpHeaders.IF_MODIFIED_SINCE);
+                    if (stale.getETag() != null) {
+                        h.set(HttpHeaders.IF_NONE_MATCH, stale.getETag());
+                    }
+                    if (stale.getLastModified() != null) {
+                        h.set(HttpHeaders.IF_MODIFIED_SINCE, stale.getLastModified());
+                    }
+                })
+                .build();
+    }
+
+    private Mono<Void> writeStale(ServerWebExchange exchange, CachedResponse stale) {
+        // drop whatever the failed upstream response already put on the response
+        exchange.getResponse().getHeaders().clear();
+        // the caller holds a reference until this terminates
+        return writeCached(exchange, stale, "STALE");
     }
 
-    private Mono<Void> writeFromCache(ServerWebExchange exchange, CachedResponse cached) {
+    /**
+     * Answers a request that is not routed upstream from a cached entry. The caller
+     * must have retained the entry; the reference is released once the write
+     * terminates.
+     */
+    private Mono<Void> writeFromCache(ServerWebExchange exchange, CachedResponse cached, String outcome) {
+        // nothing else reads the request body here, and Reactor Netty stops reading a
+        // keep-alive connection whose pipelined request body was left unread
+        return exchange.getRequest().getBody()
+                .doOnNext(DataBufferUtils::release)
+                .then(Mono.defer(() -> writeCached(exchange, cached, outcome)))
+                .doFinally(signal -> cached.release());
+    }
+
+    private Mono<Void> writeCached(ServerWebExchange exchange, CachedResponse cached, String outcome) {
         ServerHttpResponse resp = exchange.getResponse();
         resp.setStatusCode(cached.getStatus());
 
-        cached.getHeaders().forEach((name, values) -> {
-            if (!isSensitive(name)) {
-                resp.getHeaders().put(name, List.copyOf(values));
-            }
-        });
+        // sensitive headers were dropped at store time and the value lists are immutable
+        HttpHeaders out = resp.getHeaders();
+        cached.getHeaders().forEach(out::put);
 
         if (props.isAddAgeHeader()) {
             long age = Math.max(0, Duration.between(cached.getStoredAt(), Instant.now()).getSeconds());
@@ -139,12 +535,62 @@ public class ResponseCacheFilter implements GlobalFilter, Ordered {
         }
 
         if (props.isAddXcacheHeader()) {
-            resp.getHeaders().set(X_CACHE, "HIT");
+            resp.getHeaders().set(X_CACHE, outcome);
+        }
+
+        if (isNotModified(exchange.getRequest().getHeaders(), cached)) {
+            resp.setStatusCode(HttpStatus.NOT_MODIFIED);
+            resp.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+            return resp.setComplete();
+        }
+
+        if (props.getCompression().isEnabled()
+                && GzipBodies.isGzip(cached.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING))
+                && !GzipBodies.accepts(exchange.getRequest().getHeaders().getOrEmpty(HttpHeaders.ACCEPT_ENCODING))) {
+            out.remove(HttpHeaders.CONTENT_ENCODING);
+            out.remove(HttpHeaders.CONTENT_LENGTH);
+            String etag = cached.getETag();
+            if (etag != null && !etag.startsWith("W/")) {
+                out.setETag("W/" + etag); // the inflated bytes are a different representation
+            }
+            return resp.writeWith(GzipBodies.decompress(cached.getBody(), resp.bufferFactory()));
+        }
+
+        resp.getHeaders().setContentLength(cached.getBodyLength());
+        return resp.writeWith(Mono.just(resp.bufferFactory().wrap(cached.getBody())));
+    }
+
+    /**
+     * Evaluates the client's {@code If-None-Match} (weak comparison) or, if absent,
+     * {@code If-Modified-Since} against the cached entry's validators.
+     */
+    private boolean isNotModified(HttpHeaders request, CachedResponse cached) {
+        if (cached.getStatusCode() != 200) {
+            return false;
         }
 
-        byte[] body = cached.getBody();
-        resp.getHeaders().setContentLength(body.length);
-        return resp.writeWith(Mono.just(resp.bufferFactory().wrap(body)));
+        List<String> ifNoneMatch = request.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            String etag = cached.getETag();
+            if (etag == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch) {
+                if ("*".equals(candidate) || weakTag(candidate).equals(weakTag(etag))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long ifModifiedSince = request.getIfModifiedSince();
+        long lastModified = cached.getLastModifiedMillis();
+        return ifModifiedSince >= 0 && lastModified >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private static String weakTag(String etag) {
+        String t = etag.trim();
+        return t.startsWith("W/") ? t.substring(2) : t;
     }
 
     private boolean isSensitive(String header) {
@@ -161,74 +607,397 @@ public class ResponseCacheFilter implements GlobalFilter, Ordered {
                 || h.equals("upgrade");
     }
 
-    private void maybeStore(ServerWebExchange exchange, byte[] body) {
-        if (body == null || body.length == 0 || body.length > props.getMaxBodyBytes()) {
-            return;
+    /**
+     * Applies an upstream 304 to the entry it validated: headers from the 304
+     * replace the stored ones and freshness restarts, while the body is shared
+     * with the previous entry.
+     */
+    private void complete(RequestCoalescer.Flight flight, CachedResponse value) {
+        if (flight != null) {
+            coalescer.complete(flight, value);
+        }
+    }
+
+    private CachedResponse storeRevalidated(ServerWebExchange exchange, CachePolicy policy, CacheKey key,
+            CachedResponse previous) {
+        HttpHeaders headers = new HttpHeaders();
+        HttpHeaders updates = exchange.getResponse().getHeaders();
+        previous.getHeaders().forEach((name, values) -> {
+            if (!updates.containsHeader(name)) {
+                headers.put(name, values);
+            }
+        });
+        updates.forEach((name, values) -> {
+            if (!isSensitive(name) && !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)
+                    && !HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name)) {
+                headers.put(name, values);
+            }
+        });
+        CacheDirectives directives = CacheDirectives.parse(headers.get(HttpHeaders.CACHE_CONTROL));
+        if (directives.isNoStore() || directives.isPrivate()) {
+            policy.getCache().asMap().remove(key, previous);
+            if (key.getPartition() != null) {
+                policy.getCache().asMap().remove(key.withPartition(PrincipalPartitions.SHARED), previous);
+            }
+            return null;
+        }
+
+        Instant now = Instant.now();
+        long ageSeconds = upstreamAgeSeconds(headers);
+        long staleWhileRevalidate = staleSeconds(directives, directives.getStaleWhileRevalidate(),
+                props.getStale().getWhileRevalidate());
+        long staleIfError = staleSeconds(directives, directives.getStaleIfError(), props.getStale().getIfError());
+        CachedResponse value = previous.revalidated(
+                headers,
+                now.minusSeconds(ageSeconds),
+                policy.lifetimeSeconds(freshnessLifetimeSeconds(directives, headers, now)),
+                staleWhileRevalidate,
+                staleIfError);
+        if (value == null) {
+            return null;
         }
 
+        CacheKey own = key;
+        key = storeKey(exchange, key, directives, headers);
+        if (key.getPartition() != null) {
+            // the entry may have moved between the shared and the principal's partition
+            boolean shared = PrincipalPartitions.SHARED.equals(key.getPartition());
+            policy.getCache().asMap().remove(shared ? own : own.withPartition(PrincipalPartitions.SHARED), previous);
+            // the entry it replaces is credited when removed
+            partitions.charge(key.getPartition(), CacheConfig.weight(key, value));
+        }
+        policy.getCache().put(key, value);
+        policy.recordStored(key, value);
+        invalidationIndex.add(policy.getCache(), key, value);
+        if (diskTier != null) {
+            diskTier.invalidate(key); // the tiers are exclusive; drop an older demoted copy
+        }
+        return value;
+    }
+
+    /**
+     * Returns the key already computed for this exchange, or computes it and keeps
+     * it in the exchange attributes: the variant selected by the headers the
+     * resource's responses were seen to vary on, or by the policy's until then.
+     */
+    private CacheKey keyOf(ServerWebExchange exchange, CachePolicy policy) {
+        CacheKey key = exchange.getAttribute(CacheKey.ATTRIBUTE);
+        if (key == null) {
+            ServerHttpRequest request = exchange.getRequest();
+            key = varyIndex == null
+                    ? CacheKey.from(request, policy.getVaryHeaders(), varyNormalizer)
+                    : variantOf(CacheKey.from(request, List.of()), request.getHeaders(), policy);
+            String partition = partitions != null ? partitions.of(request) : null;
+            if (partition != null) {
+                key = key.withPartition(partition);
+            }
+            exchange.getAttributes().put(CacheKey.ATTRIBUTE, key);
+        }
+        return key;
+    }
+
+    /**
+     * The keys that the entry served to a {@code method} request for
+     * {@code pathAndQuery} with {@code headers} may be stored under in the default
+     * policy's cache, built like the keys of requests, for admin eviction: its
+     * variant key and, for an authorized request, the shared partition's too.
+     */
+    public List<CacheKey> keysOf(String method, String pathAndQuery, HttpHeaders headers) {
+        CacheKey key = variantOf(CacheKey.of(method, pathAndQuery, ""), headers, defaultPolicy);
+        String partition = partitions != null ? partitions.of(headers) : null;
+        return partition == null
+                ? List.of(key)
+                : List.of(key.withPartition(partition), key.withPartition(PrincipalPartitions.SHARED));
+    }
+
+    // the variant selected by the headers the resource was seen to vary on, or by the policy's until then
+    private CacheKey variantOf(CacheKey resource, HttpHeaders headers, CachePolicy policy) {
+        List<String> vary = varyIndex != null ? varyIndex.get(resource) : null;
+        return resource.withVary(headers, vary != null ? vary : policy.getVaryHeaders(), varyNormalizer);
+    }
+
+    /**
+     * Cheap checks on the response head that rule out storing it, so that such
+     * bodies, and bodies known to exceed the size limit, are not captured at all.
+     * Returns why the response cannot be stored, or {@code null} if it may be.
+     */
+    private CacheMetrics.Bypass uncapturable(CachePolicy policy, HttpStatusCode status, HttpHeaders headers) {
+        if (status != null && !isStorable(status)) {
+            return CacheMetrics.Bypass.STATUS;
+        }
+        long contentLength = headers.getContentLength();
+        if (contentLength > policy.getMaxBodyBytes()) {
+            return CacheMetrics.Bypass.TOO_LARGE;
+        }
+        CacheDirectives directives = CacheDirectives.parse(headers.get(HttpHeaders.CACHE_CONTROL));
+        if (directives.isNoStore() || directives.isPrivate()) {
+            return CacheMetrics.Bypass.NO_STORE;
+        }
+        // Vary: * means the response depends on more than the request headers
+        return headers.getVary().contains("*") ? CacheMetrics.Bypass.VARY_ALL : null;
+    }
+
+    /**
+     * Stores the captured response if it is cacheable, returning the entry, or
+     * null when it was not. A response admission turned away is not stored, but
+     * returned all the same for the followers of its flight to share.
+     */
+    private CachedResponse maybeStore(ServerWebExchange exchange, CachePolicy policy, CacheKey key,
+            BodyCapture body, boolean admitted) {
+        CacheMetrics metrics = policy.metrics();
         HttpStatusCode status = Objects.requireNonNullElse(
                 exchange.getResponse().getStatusCode(),
                 HttpStatusCode.valueOf(200));
 
-        if (status.value() != 200) {
-            return;
+        if (!isStorable(status)) {
+            metrics.bypassed(CacheMetrics.Bypass.STATUS);
+            return null;
+        }
+        // redirects and not-founds often have no body, and are stored all the same
+        boolean negative = status.value() != 200;
+        if ((body.size() == 0 && !negative) || body.size() > policy.getMaxBodyBytes()) {
+            metrics.bypassed(body.size() == 0 ? CacheMetrics.Bypass.EMPTY : CacheMetrics.Bypass.TOO_LARGE);
+            return null;
         }
 
         HttpHeaders headers = exchange.getResponse().getHeaders();
 
-        String respCacheCtl = headers.getFirst(HttpHeaders.CACHE_CONTROL);
-        if (respCacheCtl != null) {
-            String v = respCacheCtl.toLowerCase(Locale.ROOT);
-            if (v.contains("no-store") || v.contains("private")) {
-                return;
-            }
+        CacheDirectives directives = CacheDirectives.parse(headers.get(HttpHeaders.CACHE_CONTROL));
+        if (directives.isNoStore() || directives.isPrivate()) {
+            metrics.bypassed(CacheMetrics.Bypass.NO_STORE);
+            return null;
+        }
+
+        // no-cache responses are revalidated before every use, which takes validators,
+        // and negative entries never are
+        if (directives.isNoCache() && (negative || (!headers.containsHeader(HttpHeaders.ETAG)
+                && !headers.containsHeader(HttpHeaders.LAST_MODIFIED)))) {
+            metrics.bypassed(CacheMetrics.Bypass.EXPIRED);
+            return null;
         }
 
-        long maxAgeSeconds = extractMaxAgeSeconds(respCacheCtl);
+        Instant now = Instant.now();
+        long upstreamLifetime = freshnessLifetimeSeconds(directives, headers, now);
+        long maxAgeSeconds = negative
+                ? negativeCache.lifetimeSeconds(status.value(), upstreamLifetime)
+                : policy.lifetimeSeconds(upstreamLifetime);
+        long ageSeconds = upstreamAgeSeconds(headers);
+        if (maxAgeSeconds <= ageSeconds) {
+            // already stale (or explicitly not fresh) when it reached us
+            metrics.bypassed(CacheMetrics.Bypass.EXPIRED);
+            return null;
+        }
+
+        // negative entries are never served stale
+        long staleWhileRevalidate = negative ? 0 : staleSeconds(directives, directives.getStaleWhileRevalidate(),
+                props.getStale().getWhileRevalidate());
+        long staleIfError = negative ? 0
+                : staleSeconds(directives, directives.getStaleIfError(), props.getStale().getIfError());
 
-        MultiValueMap<String, String> headersCopy = new LinkedMultiValueMap<>();
+        long start = System.nanoTime();
+        HttpHeaders headersCopy = new HttpHeaders();
         headers.forEach((k, v) -> {
             if (!isSensitive(k)) {
-                headersCopy.put(k, List.copyOf(v));
+                headersCopy.put(k, v);
             }
         });
 
+        boolean gzipLater = false;
+        if (body.size() > 0 && props.getCompression().isEnabled()) {
+            String encoding = headersCopy.getFirst(HttpHeaders.CONTENT_ENCODING);
+            boolean identity = encoding == null || encoding.isBlank() || "identity".equalsIgnoreCase(encoding.trim());
+            if (!identity && !GzipBodies.isGzip(encoding)) {
+                // not every client sharing the entry could decode other codings
+                metrics.bypassed(CacheMetrics.Bypass.ENCODING);
+                return null;
+            }
+            gzipLater = identity && isCompressible(headersCopy, directives, body.size());
+        }
+        if (!admitted) {
+            metrics.bypassed(CacheMetrics.Bypass.ADMISSION);
+            return new CachedResponse(CachedBody.heap(body.toByteArray()), status.value(), headersCopy,
+                    now.minusSeconds(ageSeconds), maxAgeSeconds, staleWhileRevalidate, staleIfError);
+        }
+        CachedBody stored = body.size() == 0 ? CachedBody.heap(new byte[0]) : bodyStore.store(body);
+        if (stored == null) {
+            metrics.bypassed(CacheMetrics.Bypass.STORE_FULL);
+            return null;
+        }
+
         CachedResponse value = new CachedResponse(
-                body,
+                stored,
                 status.value(),
                 headersCopy,
-                Instant.now(),
-                maxAgeSeconds);
-
-        CacheKey key = CacheKey.from(exchange, props.getVaryHeaders());
+                now.minusSeconds(ageSeconds),
+                maxAgeSeconds,
+                staleWhileRevalidate,
+                staleIfError);
+
+        if (varyIndex != null) {
+            // key the entry by what the upstream says it varies on, which later lookups will use
+            List<String> vary = policy.keyHeaders(headers.getVary());
+            CacheKey resource = key.resource();
+            varyIndex.record(resource, vary);
+            key = resource.withVary(exchange.getRequest().getHeaders(), vary, varyNormalizer);
+        }
+        key = storeKey(exchange, key, directives, headers);
+        if (key.getPartition() != null) {
+            if (!PrincipalPartitions.SHARED.equals(key.getPartition())) {
+                // a shared entry that is no longer public must not outlive its refresh
+                policy.getCache().invalidate(key.withPartition(PrincipalPartitions.SHARED));
+            }
+            if (!partitions.tryCharge(key.getPartition(), CacheConfig.weight(key, value))) {
+                metrics.bypassed(CacheMetrics.Bypass.PRINCIPAL_FULL);
+                value.release();
+                return null;
+            }
+        }
+        Cache<CacheKey, CachedResponse> cache = negative ? negativeCache.getCache() : policy.getCache();
+        if (negative) {
+            // the resource is gone or moved: drop any copy of what it was, so lookups reach this one
+            policy.getCache().invalidate(key);
+        } else if (negativeCache != null) {
+            negativeCache.getCache().invalidate(key);
+        }
         cache.put(key, value);
+        if (!negative) {
+            policy.recordStored(key, value);
+        }
+        invalidationIndex.add(cache, key, value);
+        if (diskTier != null) {
+            diskTier.invalidate(key); // the tiers are exclusive; drop an older demoted copy
+        }
+        metrics.recordStore(start);
+        if (gzipLater) {
+            CacheKey storedKey = key;
+            Schedulers.boundedElastic().schedule(() -> gzipStored(cache, storedKey, value));
+        }
+        return value;
     }
 
-    private long extractMaxAgeSeconds(String cacheControl) {
-        if (cacheControl == null) {
-            return -1;
+    /** 200s, and the statuses kept as negative entries when those are enabled. */
+    private boolean isStorable(HttpStatusCode status) {
+        return status.value() == 200 || (negativeCache != null && negativeCache.caches(status.value()));
+    }
+
+    /**
+     * The key to store the response to {@code exchange} under. For an authorized
+     * request that is the shared partition if the upstream marked the response
+     * {@code public} or gave it an {@code s-maxage} without varying on
+     * {@code Authorization}, as RFC 9111 requires before a shared cache reuses it,
+     * else the partition of the request's own principal - never the one of the
+     * entry being refreshed.
+     */
+    private CacheKey storeKey(ServerWebExchange exchange, CacheKey key, CacheDirectives directives,
+            HttpHeaders headers) {
+        String principal = partitions != null ? partitions.of(exchange.getRequest()) : null;
+        if (principal == null) {
+            return key;
         }
+        boolean shareable = (directives.isPublic() || directives.getSMaxAge() >= 0)
+                && headers.getVary().stream().noneMatch(HttpHeaders.AUTHORIZATION::equalsIgnoreCase);
+        return key.withPartition(shareable ? PrincipalPartitions.SHARED : principal);
+    }
 
-        String v = cacheControl.toLowerCase(Locale.ROOT);
-        int idx = v.indexOf("max-age=");
-        if (idx < 0) {
-            return -1;
+    /** Whether an identity body of {@code length} bytes with {@code headers} is worth storing gzipped. */
+    private boolean isCompressible(HttpHeaders headers, CacheDirectives directives, long length) {
+        MediaType contentType;
+        try {
+            contentType = headers.getContentType();
+        } catch (InvalidMediaTypeException e) {
+            return false;
         }
+        return !directives.isNoTransform() && length >= props.getCompression().getMinBytes()
+                && GzipBodies.isCompressible(contentType, compressibleTypes);
+    }
 
-        int start = idx + 8;
-        int end = start;
-        while (end < v.length() && Character.isDigit(v.charAt(end))) {
-            end++;
+    /**
+     * Replaces a just-stored identity entry with a gzipped copy, off the event
+     * loop, so that compressing never delays the response it was captured from.
+     * The identity entry is served meanwhile, and kept if it was replaced or
+     * removed by then or if gzip does not make it smaller.
+     */
+    private void gzipStored(Cache<CacheKey, CachedResponse> cache, CacheKey key, CachedResponse identity) {
+        if (cache.asMap().get(key) != identity || !identity.retain()) {
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = GzipBodies.compress(identity.getBody(), props.getCompression().getLevel());
+        } finally {
+            identity.release();
+        }
+        CachedBody body = bytes.length < identity.getBodyLength() ? bodyStore.store(bytes) : null;
+        if (body == null) {
+            return;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        identity.getHeaders().forEach(headers::put);
+        headers.set(HttpHeaders.CONTENT_ENCODING, GzipBodies.GZIP);
+        headers.remove(HttpHeaders.CONTENT_LENGTH);
+        if (headers.getVary().stream().noneMatch(HttpHeaders.ACCEPT_ENCODING::equalsIgnoreCase)) {
+            headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        CachedResponse gzipped = new CachedResponse(body, identity.getStatusCode(), headers,
+                identity.getStoredAt(), identity.getMaxAgeSeconds(), identity.getStaleWhileRevalidateSeconds(),
+                identity.getStaleIfErrorSeconds());
+
+        // charged before the swap, as the removal listener credits the identity entry
+        if (PrincipalPartitions.isPrivate(key)) {
+            partitions.charge(key.getPartition(), CacheConfig.weight(key, gzipped));
+        }
+        if (cache.asMap().replace(key, identity, gzipped)) {
+            invalidationIndex.add(cache, key, gzipped);
+        } else {
+            if (PrincipalPartitions.isPrivate(key)) {
+                partitions.removed(key, gzipped);
+            }
+            gzipped.release();
         }
+    }
 
-        if (start == end) {
+    /**
+     * Freshness lifetime in seconds from {@code s-maxage}, then {@code max-age},
+     * then {@code Expires}; -1 when the upstream gave none and the TTL applies.
+     */
+    private long freshnessLifetimeSeconds(CacheDirectives directives, HttpHeaders headers, Instant now) {
+        if (directives.getSMaxAge() >= 0) {
+            return directives.getSMaxAge();
+        }
+        if (directives.getMaxAge() >= 0) {
+            return directives.getMaxAge();
+        }
+        if (!headers.containsHeader(HttpHeaders.EXPIRES)) {
             return -1;
         }
 
+        long expires = headers.getExpires();
+        if (expires < 0) {
+            // invalid dates such as "0" mean already expired
+            return 0;
+        }
+        long date = headers.getDate();
+        long base = date < 0 ? now.toEpochMilli() : date;
+        return Math.max(0, (expires - base) / 1000);
+    }
+
+    private long staleSeconds(CacheDirectives directives, long fromResponse, Duration configured) {
+        if (directives.isMustRevalidate()) {
+            return 0;
+        }
+        long seconds = fromResponse >= 0 ? fromResponse : configured.getSeconds();
+        return Math.min(seconds, MAX_STALE_SECONDS);
+    }
+
+    private long upstreamAgeSeconds(HttpHeaders headers) {
+        String age = headers.getFirst(HttpHeaders.AGE);
+        if (age == null) {
+            return 0;
+        }
         try {
-            return Long.parseLong(v.substring(start, end));
+            return Math.max(0, Long.parseLong(age.trim()));
         } catch (NumberFormatException e) {
-            return -1;
+            return 0;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,216 @@
+package com.learn.developer.cache;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.gateway.event.RefreshRoutesResultEvent;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteLocator;
+import org.springframework.cloud.gateway.support.HasRouteId;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * {@code ResponseCache} route filter: gives a route its own {@link CachePolicy}.
+ * Unset arguments fall back to the {@code gateway.cache} properties, and a route
+ * with {@code max-weight-bytes} gets a separate cache of that size, so that its
+ * entries and those of other routes cannot evict each other. The caching itself
+ * is still done by {@link ResponseCacheFilter}, which picks up the policy from
+ * the exchange. When the routes are refreshed, the policies of routes that no
+ * longer exist are dropped with their caches and meters.
+ * <pre>
+ * filters:
+ *   - name: ResponseCache
+ *     args:
+ *       ttl: 10m
+ *       max-weight-bytes: 52428800
+ * </pre>
+ */
+@Component
+public class ResponseCacheGatewayFilterFactory
+        extends AbstractGatewayFilterFactory<ResponseCacheGatewayFilterFactory.Config>
+        implements ApplicationListener<RefreshRoutesResultEvent> {
+
+    public static class Config implements HasRouteId {
+        private String routeId;
+        private Duration ttl;
+        private Integer maxBodyBytes;
+        private List<String> varyHeaders;
+        private Boolean skipWhenAuthorization;
+        private Long maxWeightBytes; // unset shares the default cache
+
+        @Override
+        public void setRouteId(String routeId) {
+            this.routeId = routeId;
+        }
+
+        @Override
+        public String getRouteId() {
+            return routeId;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public Integer getMaxBodyBytes() {
+            return maxBodyBytes;
+        }
+
+        public void setMaxBodyBytes(Integer maxBodyBytes) {
+            this.maxBodyBytes = maxBodyBytes;
+        }
+
+        public List<String> getVaryHeaders() {
+            return varyHeaders;
+        }
+
+        public void setVaryHeaders(List<String> varyHeaders) {
+            this.varyHeaders = varyHeaders;
+        }
+
+        public Boolean getSkipWhenAuthorization() {
+            return skipWhenAuthorization;
+        }
+
+        public void setSkipWhenAuthorization(Boolean skipWhenAuthorization) {
+            this.skipWhenAuthorization = skipWhenAuthorization;
+        }
+
+        public Long getMaxWeightBytes() {
+            return maxWeightBytes;
+        }
+
+        public void setMaxWeightBytes(Long maxWeightBytes) {
+            this.maxWeightBytes = maxWeightBytes;
+        }
+    }
+
+    private final CacheProperties props;
+    private final CachePolicy defaultPolicy;
+    private final ResponseExpiry expiry;
+    private final DiskTier diskTier;
+    private final InvalidationIndex invalidationIndex;
+    private final PrincipalPartitions partitions;
+    private final MeterRegistry registry;
+    private final Map<String, CachePolicy> policies = new ConcurrentHashMap<>();
+
+    public ResponseCacheGatewayFilterFactory(CacheProperties props, CachePolicy defaultPolicy, ResponseExpiry expiry,
+            ObjectProvider<DiskTier> diskTier, InvalidationIndex invalidationIndex,
+            ObjectProvider<PrincipalPartitions> partitions, MeterRegistry registry) {
+        super(Config.class);
+        this.props = props;
+        this.defaultPolicy = defaultPolicy;
+        this.expiry = expiry;
+        this.diskTier = diskTier.getIfAvailable();
+        this.invalidationIndex = invalidationIndex;
+        this.partitions = partitions.getIfAvailable();
+        this.registry = registry;
+    }
+
+    @Override
+    public List<String> shortcutFieldOrder() {
+        return List.of("ttl", "maxWeightBytes");
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        String routeId = config.getRouteId() != null ? config.getRouteId() : CachePolicy.DEFAULT_ROUTE;
+        CachePolicy policy = policies.compute(routeId, (id, previous) -> newPolicy(id, config, previous));
+        return new OrderedGatewayFilter((exchange, chain) -> {
+            exchange.getAttributes().put(CachePolicy.ATTRIBUTE, policy);
+            return chain.filter(exchange);
+        }, ResponseCacheFilter.ORDER - 1);
+    }
+
+    /** Policies of the routes with a {@code ResponseCache} filter. */
+    public Collection<CachePolicy> getPolicies() {
+        return policies.values();
+    }
+
+    @Override
+    public void onApplicationEvent(RefreshRoutesResultEvent event) {
+        if (event.isSuccess() && event.getSource() instanceof RouteLocator routes) {
+            routes.getRoutes().map(Route::getId).collect(Collectors.toSet()).subscribe(this::retainRoutes);
+        }
+    }
+
+    /** Drops the policies of the routes not in {@code routeIds}, their own caches and their meters. */
+    void retainRoutes(Set<String> routeIds) {
+        policies.forEach((routeId, policy) -> {
+            if (!routeId.equals(CachePolicy.DEFAULT_ROUTE) && !routeIds.contains(routeId)
+                    && policies.remove(routeId, policy)) {
+                if (policy.hasOwnBudget()) {
+                    policy.getCache().invalidateAll();
+                }
+                registry.getMeters().stream()
+                        .filter(meter -> routeId.equals(meter.getId().getTag("route")))
+                        .forEach(registry::remove);
+            }
+        });
+    }
+
+    private CachePolicy newPolicy(String routeId, Config config, CachePolicy previous) {
+        Cache<CacheKey, CachedResponse> cache = defaultPolicy.getCache();
+        Long maxWeightBytes = config.getMaxWeightBytes();
+        if (maxWeightBytes != null) {
+            if (previous != null && previous.hasOwnBudget()) {
+                // routes were refreshed: keep the entries and resize the budget
+                cache = previous.getCache();
+                cache.policy().eviction().ifPresent(e -> e.setMaximum(maxWeightBytes));
+            } else {
+                cache = CacheConfig.newCache(maxWeightBytes, expiry, diskTier, invalidationIndex, partitions,
+                        CacheConfig.evictions(registry, routeId));
+                Gauge.builder("gateway.cache.route.size", policies, p -> size(p.get(routeId)))
+                        .tag("route", routeId)
+                        .register(registry);
+                Gauge.builder("gateway.cache.route.weight.bytes", policies, p -> weightedSize(p.get(routeId)))
+                        .tag("route", routeId)
+                        .baseUnit("bytes")
+                        .register(registry);
+            }
+        } else if (previous != null && previous.hasOwnBudget()) {
+            previous.getCache().invalidateAll();
+        }
+
+        return new CachePolicy(
+                routeId,
+                config.getTtl() != null ? config.getTtl() : props.getTtl(),
+                config.getMaxBodyBytes() != null ? config.getMaxBodyBytes() : props.getMaxBodyBytes(),
+                config.getVaryHeaders() != null ? config.getVaryHeaders() : props.getVaryHeaders(),
+                config.getSkipWhenAuthorization() != null
+                        ? config.getSkipWhenAuthorization()
+                        : props.isSkipWhenAuthorization(),
+                props.getCompression().isEnabled(),
+                cache,
+                maxWeightBytes != null,
+                props.getMetrics().isPerRoute(),
+                registry);
+    }
+
+    private static double size(CachePolicy policy) {
+        return policy == null || !policy.hasOwnBudget() ? 0 : policy.getCache().estimatedSize();
+    }
+
+    private static double weightedSize(CachePolicy policy) {
+        return policy == null || !policy.hasOwnBudget() ? 0 : CacheConfig.weightedSize(policy.getCache());
+    }
+}
@@ -0,0 +1,81 @@
+package com.learn.developer.cache;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import com.github.benmanes.caffeine.cache.Expiry;
+
+/**
+ * Expires each entry when its own freshness lifetime, plus any stale window it
+ * may still be served in, runs out. The lifetime is resolved when the entry is
+ * stored ({@link CachedResponse#getMaxAgeSeconds()}), capped by the TTL of its
+ * route's {@link CachePolicy}; the configured TTL applies to entries stored
+ * without one. Reads do not extend an entry's life.
+ */
+public final class ResponseExpiry implements Expiry<CacheKey, CachedResponse> {
+
+    private final Duration ttl;
+
+    public ResponseExpiry(Duration ttl) {
+        this.ttl = ttl;
+    }
+
+    /** Lifetime of the entry measured from {@link CachedResponse#getStoredAt()}. */
+    public Duration freshnessLifetime(CachedResponse value) {
+        long maxAge = value.getMaxAgeSeconds();
+        return maxAge < 0 ? ttl : Duration.ofSeconds(maxAge);
+    }
+
+    public boolean isFresh(CachedResponse value, Instant now) {
+        return age(value, now).compareTo(freshnessLifetime(value)) < 0;
+    }
+
+    /** Whether the entry is fresh but in the last {@code fraction} of its freshness lifetime. */
+    public boolean isDueForRefresh(CachedResponse value, Instant now, double fraction) {
+        Duration lifetime = freshnessLifetime(value);
+        Duration age = age(value, now);
+        return age.compareTo(lifetime) < 0
+                && age.toMillis() >= (long) (lifetime.toMillis() * (1 - fraction));
+    }
+
+    public boolean isWithinStaleWhileRevalidate(CachedResponse value, Instant now) {
+        return isWithin(value, now, value.getStaleWhileRevalidateSeconds());
+    }
+
+    public boolean isWithinStaleIfError(CachedResponse value, Instant now) {
+        return isWithin(value, now, value.getStaleIfErrorSeconds());
+    }
+
+    private boolean isWithin(CachedResponse value, Instant now, long staleSeconds) {
+        Duration limit = freshnessLifetime(value).plusSeconds(Math.max(0, staleSeconds));
+        return age(value, now).compareTo(limit) < 0;
+    }
+
+    private static Duration age(CachedResponse value, Instant now) {
+        return Duration.between(value.getStoredAt(), now);
+    }
+
+    private long remainingNanos(CachedResponse value) {
+        long staleSeconds = Math.max(0,
+                Math.max(value.getStaleWhileRevalidateSeconds(), value.getStaleIfErrorSeconds()));
+        Duration remaining = freshnessLifetime(value)
+                .plusSeconds(staleSeconds)
+                .minus(age(value, Instant.now()));
+        return remaining.isNegative() ? 0 : remaining.toNanos();
+    }
+
+    @Override
+    public long expireAfterCreate(CacheKey key, CachedResponse value, long currentTime) {
+        return remainingNanos(value);
+    }
+
+    @Override
+    public long expireAfterUpdate(CacheKey key, CachedResponse value, long currentTime, long currentDuration) {
+        return remainingNanos(value);
+    }
+
+    @Override
+    public long expireAfterRead(CacheKey key, CachedResponse value, long currentTime, long currentDuration) {
+        return currentDuration;
+    }
+}
@@ -0,0 +1,158 @@
+package com.learn.developer.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Fixed-capacity allocator for response bodies outside the Java heap. Memory is
+ * reserved lazily in direct {@link ByteBuffer} slabs of one size; each slab is
+ * cut into equal chunks of one power-of-two size class. A slab whose chunks are
+ * all free goes back to a shared pool so it can serve another size class, which
+ * keeps the split between classes following the traffic.
+ * <p>
+ * The slabs are never handed back to the GC, so freeing a chunk makes its memory
+ * reusable immediately and total direct memory never exceeds the capacity.
+ */
+public final class SlabAllocator {
+
+    public static final class Chunk {
+        private final Slab slab;
+        private final int index;
+        private final ByteBuffer memory;
+
+        private Chunk(Slab slab, int index, ByteBuffer memory) {
+            this.slab = slab;
+            this.index = index;
+            this.memory = memory;
+        }
+
+        /** Writable view of the whole chunk, positioned at its start. */
+        public ByteBuffer memory() {
+            return memory.duplicate();
+        }
+
+        public int capacity() {
+            return memory.capacity();
+        }
+    }
+
+    private static final class SizeClass {
+        private final int chunkSize;
+        private final ArrayDeque<Slab> partial = new ArrayDeque<>(); // slabs with at least one free chunk
+
+        private SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    private static final class Slab {
+        private final ByteBuffer memory;
+        private final SizeClass sizeClass;
+        private final int[] free;
+        private int freeCount;
+
+        private Slab(ByteBuffer memory, SizeClass sizeClass) {
+            this.memory = memory;
+            this.sizeClass = sizeClass;
+            int chunks = memory.capacity() / sizeClass.chunkSize;
+            this.free = new int[chunks];
+            for (int i = 0; i < chunks; i++) {
+                free[i] = chunks - 1 - i;
+            }
+            this.freeCount = chunks;
+        }
+    }
+
+    private final int slabBytes;
+    private final int maxSlabs;
+    private final SizeClass[] classes;
+    private final ArrayDeque<ByteBuffer> idleSlabs = new ArrayDeque<>();
+    private int reservedSlabs;
+    private long usedBytes;
+
+    public SlabAllocator(long capacityBytes, int slabBytes, int minChunkBytes) {
+        if (Integer.bitCount(slabBytes) != 1 || Integer.bitCount(minChunkBytes) != 1 || minChunkBytes > slabBytes) {
+            throw new IllegalArgumentException("slab and chunk sizes must be powers of two with chunk <= slab");
+        }
+        this.slabBytes = slabBytes;
+        this.maxSlabs = (int) Math.max(1, capacityBytes / slabBytes);
+        int count = Integer.numberOfTrailingZeros(slabBytes) - Integer.numberOfTrailingZeros(minChunkBytes) + 1;
+        this.classes = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            classes[i] = new SizeClass(minChunkBytes << i);
+        }
+    }
+
+    /** Returns a chunk of at least {@code size} bytes, or {@code null} when out of memory. */
+    public synchronized Chunk allocate(int size) {
+        if (size <= 0 || size > slabBytes) {
+            return null;
+        }
+
+        SizeClass sc = classFor(size);
+        Slab slab = sc.partial.peekFirst();
+        if (slab == null) {
+            ByteBuffer memory = takeSlab();
+            if (memory == null) {
+                return null;
+            }
+            slab = new Slab(memory, sc);
+            sc.partial.addFirst(slab);
+        }
+
+        int index = slab.free[--slab.freeCount];
+        if (slab.freeCount == 0) {
+            sc.partial.pollFirst();
+        }
+        usedBytes += sc.chunkSize;
+        return new Chunk(slab, index, slab.memory.slice(index * sc.chunkSize, sc.chunkSize));
+    }
+
+    public synchronized void free(Chunk chunk) {
+        Slab slab = chunk.slab;
+        SizeClass sc = slab.sizeClass;
+        boolean wasFull = slab.freeCount == 0;
+        slab.free[slab.freeCount++] = chunk.index;
+        usedBytes -= sc.chunkSize;
+
+        if (slab.freeCount == slab.free.length) {
+            sc.partial.remove(slab);
+            idleSlabs.push(slab.memory);
+        } else if (wasFull) {
+            sc.partial.addLast(slab);
+        }
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getReservedBytes() {
+        return (long) reservedSlabs * slabBytes;
+    }
+
+    public long getCapacityBytes() {
+        return (long) maxSlabs * slabBytes;
+    }
+
+    private SizeClass classFor(int size) {
+        for (SizeClass sc : classes) {
+            if (sc.chunkSize >= size) {
+                return sc;
+            }
+        }
+        throw new IllegalStateException("no size class for " + size);
+    }
+
+    private ByteBuffer takeSlab() {
+        ByteBuffer idle = idleSlabs.poll();
+        if (idle != null) {
+            return idle;
+        }
+        if (reservedSlabs >= maxSlabs) {
+            return null;
+        }
+        reservedSlabs++;
+        return ByteBuffer.allocateDirect(slabBytes);
+    }
+}
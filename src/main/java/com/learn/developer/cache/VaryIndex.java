@@ -0,0 +1,32 @@
+package com.learn.developer.cache;
+
+import java.util.List;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * The request headers that each resource's responses were last seen to vary on,
+ * so that lookups key variants by exactly those. Bounded: a resource that was
+ * dropped, or not stored yet, is keyed by the policy's configured headers until
+ * its next store.
+ */
+final class VaryIndex {
+
+    private final Cache<CacheKey, List<String>> headers;
+
+    VaryIndex(long maxResources) {
+        this.headers = Caffeine.newBuilder().maximumSize(maxResources).build();
+    }
+
+    /** The vary headers last recorded for {@code resource}, or {@code null}. */
+    List<String> get(CacheKey resource) {
+        return headers.getIfPresent(resource);
+    }
+
+    void record(CacheKey resource, List<String> varyHeaders) {
+        if (!varyHeaders.equals(headers.getIfPresent(resource))) {
+            headers.put(resource, varyHeaders);
+        }
+    }
+}
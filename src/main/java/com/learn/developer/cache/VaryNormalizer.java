@@ -0,0 +1,108 @@
+package com.learn.developer.cache;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Maps request header values that a response varies on to a few buckets, so
+ * that requests the upstream answers alike share one entry: {@code Accept-Language}
+ * to the best of the supported languages, {@code Accept} to the best of the
+ * served media types, and {@code Accept-Encoding} to br, gzip or identity. Other
+ * headers, and normalizers left unconfigured, keep their raw values. Buckets are
+ * memoized per raw value.
+ */
+public final class VaryNormalizer {
+
+    /** Keeps every value as it is. */
+    public static final VaryNormalizer RAW = new VaryNormalizer(List.of(), List.of(), false);
+
+    /** Bucket of values that match none of the configured choices. */
+    static final String NO_MATCH = "*";
+
+    private static final int MEMO_SIZE = 1024;
+
+    private final List<String> languages;
+    private final List<MediaType> mediaTypes;
+    private final Cache<String, String> languageBuckets;
+    private final Cache<String, String> mediaTypeBuckets;
+    private final Cache<String, String> encodingBuckets;
+    private final Function<String, String> toLanguage = this::language;
+    private final Function<String, String> toMediaType = this::mediaType;
+
+    public VaryNormalizer(List<String> languages, List<String> mediaTypes, boolean encodingClasses) {
+        this.languages = List.copyOf(languages);
+        this.mediaTypes = MediaType.parseMediaTypes(mediaTypes);
+        this.languageBuckets = languages.isEmpty() ? null : memo();
+        this.mediaTypeBuckets = mediaTypes.isEmpty() ? null : memo();
+        this.encodingBuckets = encodingClasses ? memo() : null;
+    }
+
+    public static VaryNormalizer from(CacheProperties.Vary props) {
+        return new VaryNormalizer(props.getLanguages(), props.getMediaTypes(), props.isEncodingClasses());
+    }
+
+    private static Cache<String, String> memo() {
+        return Caffeine.newBuilder().maximumSize(MEMO_SIZE).build();
+    }
+
+    /** Bucket of {@code value} for the header {@code name}, which must be lower-case. */
+    public String normalize(String name, String value) {
+        return switch (name) {
+            case "accept-language" -> languageBuckets == null ? value : languageBuckets.get(value, toLanguage);
+            case "accept" -> mediaTypeBuckets == null ? value : mediaTypeBuckets.get(value, toMediaType);
+            case "accept-encoding" -> encodingBuckets == null ? value
+                    : encodingBuckets.get(value, VaryNormalizer::encoding);
+            default -> value;
+        };
+    }
+
+    private String language(String acceptLanguage) {
+        try {
+            String tag = Locale.lookupTag(Locale.LanguageRange.parse(acceptLanguage), languages);
+            return tag != null ? tag : NO_MATCH;
+        } catch (IllegalArgumentException e) {
+            return NO_MATCH;
+        }
+    }
+
+    // the served type with the highest quality among the accepted ranges including it,
+    // the configured order breaking ties
+    private String mediaType(String accept) {
+        List<MediaType> accepted;
+        try {
+            accepted = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return NO_MATCH;
+        }
+        MediaType best = null;
+        double bestQuality = 0;
+        for (MediaType served : mediaTypes) {
+            double quality = 0;
+            for (MediaType range : accepted) {
+                if (range.includes(served)) {
+                    quality = Math.max(quality, range.getQualityValue());
+                }
+            }
+            if (quality > bestQuality) {
+                best = served;
+                bestQuality = quality;
+            }
+        }
+        return best != null ? best.toString() : NO_MATCH;
+    }
+
+    private static String encoding(String acceptEncoding) {
+        List<String> header = List.of(acceptEncoding);
+        if (GzipBodies.accepts(header, "br")) {
+            return "br";
+        }
+        return GzipBodies.accepts(header) ? GzipBodies.GZIP : "identity";
+    }
+}
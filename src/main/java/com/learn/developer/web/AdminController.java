@@ -1,7 +1,11 @@
 package com.learn.developer.web;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.util.StringUtils;
@@ -13,67 +17,67 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.github.benmanes.caffeine.cache.Cache;
+import com.learn.developer.cache.CacheInvalidator;
 import com.learn.developer.cache.CacheKey;
+import com.learn.developer.cache.CachePolicy;
 import com.learn.developer.cache.CacheProperties;
 import com.learn.developer.cache.CachedResponse;
+import com.learn.developer.cache.DiskTier;
+import com.learn.developer.cache.Invalidation;
+import com.learn.developer.cache.ResponseCacheFilter;
+import com.learn.developer.cache.ResponseCacheGatewayFilterFactory;
 
 @RestController
 @RequestMapping("/admin/cache")
 public class AdminController {
 
-    // Helper for evict endpoint to rebuild the key
-    static class CacheKeyBuilder {
-        CacheKey build(String method, String pathAndQuery, String varyHeadersCsv, String varyValuesCsv) {
-            String fp;
-            if (!StringUtils.hasText(varyValuesCsv)) {
-                fp = "";
-            } else {
-                fp = String.join("|", varyValuesCsv.split(","));
-            }
-            return new CacheKeyReflect(method, pathAndQuery, fp).toKey();
-        }
-    }
-
-    // Use a minimal adapter to construct a CacheKey (since CacheKey has a factory
-    // bound to exchange)
-    static class CacheKeyReflect {
-        private final String method;
-        private final String pathAndQuery;
-        private final String varyFp;
-
-        CacheKeyReflect(String method, String pathAndQuery, String varyFp) {
-            this.method = method;
-            this.pathAndQuery = pathAndQuery;
-            this.varyFp = varyFp;
-        }
-
-        CacheKey toKey() {
-            try {
-                var ctor = CacheKey.class.getDeclaredConstructor(String.class, String.class, String.class);
-                ctor.setAccessible(true);
-                return ctor.newInstance(method, pathAndQuery, varyFp);
-            } catch (Exception e) {
-                throw new IllegalStateException("Failed to create CacheKey for eviction", e);
+    // Pairs the evict endpoint's header names with their values, as a request would send them
+    static HttpHeaders requestHeaders(String varyHeadersCsv, String varyValuesCsv) {
+        HttpHeaders headers = new HttpHeaders();
+        if (StringUtils.hasText(varyValuesCsv)) {
+            String[] names = varyHeadersCsv.split(",");
+            String[] values = varyValuesCsv.split(",", -1);
+            for (int i = 0; i < Math.min(names.length, values.length); i++) {
+                if (StringUtils.hasText(names[i]) && StringUtils.hasText(values[i])) {
+                    headers.set(names[i].trim(), values[i].trim());
+                }
             }
         }
+        return headers;
     }
 
     private final Cache<CacheKey, CachedResponse> cache;
 
     private final CacheProperties props;
 
-    public AdminController(Cache<CacheKey, CachedResponse> cache, CacheProperties props) {
+    private final DiskTier diskTier;
+
+    private final ResponseCacheGatewayFilterFactory routePolicies;
+
+    private final CacheInvalidator invalidator;
+
+    private final ResponseCacheFilter filter;
+
+    public AdminController(Cache<CacheKey, CachedResponse> cache, CacheProperties props,
+            ObjectProvider<DiskTier> diskTier, ResponseCacheGatewayFilterFactory routePolicies,
+            CacheInvalidator invalidator, ResponseCacheFilter filter) {
         this.cache = cache;
         this.props = props;
+        this.diskTier = diskTier.getIfAvailable();
+        this.routePolicies = routePolicies;
+        this.invalidator = invalidator;
+        this.filter = filter;
     }
 
     @DeleteMapping("/clear")
     public Map<String, Object> clear(@RequestHeader(name = "X-API-Key", required = false) String key) {
         requireApiKey(key);
-        cache.invalidateAll();
+        invalidator.invalidate(Invalidation.clear());
         return Map.of("ok", true);
     }
 
+    // Evicts what a request with these header values is served: the key is built like a request's,
+    // with the headers the resource's responses vary on and their normalized values
     @DeleteMapping("/evict")
     public Map<String, Object> evict(@RequestHeader(name = "X-API-Key", required = false) String key,
             @RequestParam String method,
@@ -81,22 +85,67 @@ public class AdminController {
             @RequestParam(defaultValue = "Accept,Accept-Encoding,Accept-Language") String varyHeaders,
             @RequestParam(defaultValue = "") String varyValues) {
         requireApiKey(key);
-        CacheKey k = new CacheKeyBuilder().build(method, pathAndQuery, varyHeaders, varyValues);
-        cache.invalidate(k);
+        for (CacheKey k : filter.keysOf(method, pathAndQuery, requestHeaders(varyHeaders, varyValues))) {
+            invalidator.invalidate(Invalidation.key(k));
+        }
         return Map.of("ok", true);
     }
 
+    // Bulk invalidation by exactly one of: path prefix, path glob or Surrogate-Key tag
+    @DeleteMapping("/invalidate")
+    public Map<String, Object> invalidate(@RequestHeader(name = "X-API-Key", required = false) String key,
+            @RequestParam(required = false) String prefix,
+            @RequestParam(required = false) String glob,
+            @RequestParam(required = false) String tag) {
+        requireApiKey(key);
+        int given = (prefix != null ? 1 : 0) + (glob != null ? 1 : 0) + (tag != null ? 1 : 0);
+        if (given != 1) {
+            throw new org.springframework.web.server.ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "exactly one of prefix, glob or tag is required");
+        }
+
+        Invalidation invalidation = prefix != null ? Invalidation.prefix(prefix)
+                : glob != null ? Invalidation.glob(glob)
+                : Invalidation.tag(tag);
+        int invalidated = invalidator.invalidate(invalidation);
+        return Map.of("ok", true, "invalidated", invalidated);
+    }
+
     @GetMapping(value = "/stats", produces = MediaType.APPLICATION_JSON_VALUE)
     public Map<String, Object> stats(@RequestHeader(name = "X-API-Key", required = false) String key) {
         requireApiKey(key);
         var stats = cache.stats();
-        return Map.of(
-                "hitCount", stats.hitCount(),
-                "missCount", stats.missCount(),
-                "hitRate", stats.hitRate(),
-                "evictionCount", stats.evictionCount(),
-                "estimatedSize", cache.estimatedSize(),
-                "maxWeightBytes", props.getMaxWeightBytes());
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("hitCount", stats.hitCount());
+        body.put("missCount", stats.missCount());
+        body.put("hitRate", stats.hitRate());
+        body.put("evictionCount", stats.evictionCount());
+        body.put("estimatedSize", cache.estimatedSize());
+        body.put("maxWeightBytes", props.getMaxWeightBytes());
+        body.put("weightedBytes", cache.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L));
+        if (diskTier != null) {
+            body.put("l2Size", diskTier.size());
+            body.put("l2Bytes", diskTier.bytes());
+        }
+        Map<String, Object> routes = new TreeMap<>();
+        for (CachePolicy policy : routePolicies.getPolicies()) {
+            Map<String, Object> route = new LinkedHashMap<>();
+            route.put("hitCount", policy.getHitCount());
+            route.put("missCount", policy.getMissCount());
+            route.put("ttlSeconds", policy.getTtl().getSeconds());
+            if (policy.hasOwnBudget()) {
+                route.put("estimatedSize", policy.getCache().estimatedSize());
+                route.put("maxWeightBytes", policy.getCache().policy().eviction()
+                        .map(e -> e.getMaximum()).orElse(0L));
+                route.put("weightedBytes", policy.getCache().policy().eviction()
+                        .map(e -> e.weightedSize().orElse(0)).orElse(0L));
+            }
+            routes.put(policy.getRouteId(), route);
+        }
+        if (!routes.isEmpty()) {
+            body.put("routes", routes);
+        }
+        return body;
     }
 
     private void requireApiKey(String key) {
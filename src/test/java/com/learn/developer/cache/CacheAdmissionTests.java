@@ -0,0 +1,54 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class CacheAdmissionTests {
+
+    final MeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void keysAreAdmittedOnTheirSecondMiss() {
+        CacheAdmission admission = new CacheAdmission(2, Duration.ofMinutes(10), 64 * 1024, registry);
+        CacheKey key = CacheKey.of("GET", "/items/1", "");
+
+        assertThat(admission.admit(key)).isFalse();
+        assertThat(admission.admit(key)).isTrue();
+        assertThat(admission.admit(key)).isTrue();
+
+        int admittedOneHitWonders = 0;
+        for (int i = 0; i < 5_000; i++) {
+            if (admission.admit(CacheKey.of("GET", "/search?q=" + i, ""))) {
+                admittedOneHitWonders++;
+            }
+        }
+        assertThat(admittedOneHitWonders).isLessThan(50); // doorkeeper false positives
+        assertThat(registry.counter("gateway.cache.admission", "result", "admitted").count())
+                .isEqualTo(2 + admittedOneHitWonders);
+    }
+
+    @Test
+    void missCountsFadeEveryWindow() throws InterruptedException {
+        CacheAdmission admission = new CacheAdmission(3, Duration.ofMillis(100), 64 * 1024, registry);
+        CacheKey popular = CacheKey.of("GET", "/items/popular", "");
+        CacheKey rare = CacheKey.of("GET", "/items/rare", "");
+        for (int i = 0; i < 8; i++) {
+            admission.admit(popular);
+        }
+        admission.admit(rare);
+        admission.admit(rare);
+        assertThat(admission.frequency(popular)).isEqualTo(8);
+
+        Thread.sleep(150);
+
+        // the popular key keeps half of its count, the rare one falls back to a first miss
+        assertThat(admission.admit(popular)).isTrue();
+        assertThat(admission.admit(rare)).isFalse();
+    }
+}
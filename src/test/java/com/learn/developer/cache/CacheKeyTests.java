@@ -0,0 +1,58 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+class CacheKeyTests {
+
+    static final List<String> VARY = CacheKey.normalizeVaryHeaders(List.of("Accept-Language", "Accept"));
+
+    @Test
+    void queryOrderDoesNotChangeTheKey() {
+        CacheKey a = CacheKey.from(MockServerHttpRequest.get("/users?b=2&a=1&a=0&ab=3").build(), VARY);
+        CacheKey b = CacheKey.from(MockServerHttpRequest.get("/users?ab=3&a=0&b=2&a=1").build(), VARY);
+
+        assertThat(a).isEqualTo(b).hasSameHashCodeAs(b);
+        assertThat(a.getPathAndQuery()).isEqualTo("/users?a=0&a=1&ab=3&b=2");
+        assertThat(a.getPath()).isEqualTo("/users");
+    }
+
+    @Test
+    void varyHeadersArePartOfTheKey() {
+        CacheKey json = CacheKey.from(MockServerHttpRequest.get("/users")
+                .header("Accept", "application/json").header("Accept-Language", "en").build(), VARY);
+        CacheKey xml = CacheKey.from(MockServerHttpRequest.get("/users")
+                .header("Accept", "application/xml").header("Accept-Language", "en").build(), VARY);
+
+        assertThat(json).isNotEqualTo(xml);
+        assertThat(json.getVaryHeaderFingerprint()).isEqualTo("accept:application/json|accept-language:en");
+        assertThat(CacheKey.of("GET", "/users", "accept:application/json|accept-language:en")).isEqualTo(json);
+    }
+
+    @Test
+    void negotiatedValuesAreNormalizedToWhatTheUpstreamServes() {
+        VaryNormalizer normalizer = new VaryNormalizer(List.of("en", "fr-FR"), List.of("application/json", "text/html"),
+                true);
+        List<String> vary = CacheKey.normalizeVaryHeaders(List.of("Accept-Language", "Accept", "Accept-Encoding"));
+
+        CacheKey browser = CacheKey.from(MockServerHttpRequest.get("/users")
+                .header("Accept-Language", "en-GB,en;q=0.8,fr;q=0.5")
+                .header("Accept", "text/html,application/xhtml+xml,*/*;q=0.8")
+                .header("Accept-Encoding", "gzip, deflate, br").build(), vary, normalizer);
+        assertThat(browser.getVaryHeaderFingerprint())
+                .isEqualTo("accept:text/html|accept-encoding:br|accept-language:en");
+
+        CacheKey script = CacheKey.from(MockServerHttpRequest.get("/users")
+                .header("Accept-Language", "de")
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "x-gzip").build(), vary, normalizer);
+        assertThat(script.getVaryHeaderFingerprint())
+                .isEqualTo("accept:application/json|accept-encoding:gzip|accept-language:*");
+        assertThat(script.resource()).isEqualTo(browser.resource());
+        assertThat(script.resource().getVaryHeaderFingerprint()).isEmpty();
+    }
+}
@@ -0,0 +1,195 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class CachePeersTests {
+
+    static final String SELF = "http://self.invalid";
+    static final String DEAD_PEER = "http://127.0.0.1:1";
+
+    static final Map<String, AtomicInteger> upstreamHits = new ConcurrentHashMap<>();
+    static final Map<String, String> peerHeaderSeenUpstream = new ConcurrentHashMap<>();
+    static final Map<String, String> forwardedBy = new ConcurrentHashMap<>();
+
+    static final DisposableServer upstream = HttpServer.create()
+            .host("127.0.0.1")
+            .port(0)
+            .route(routes -> routes.get("/items/{id}", (req, res) -> {
+                upstreamHits.computeIfAbsent(req.fullPath(), p -> new AtomicInteger()).incrementAndGet();
+                String peer = req.requestHeaders().get(CachePeers.PEER_HEADER);
+                if (peer != null) {
+                    peerHeaderSeenUpstream.put(req.fullPath(), peer);
+                }
+                return res.header("Cache-Control", "public, max-age=60").sendString(Mono.just("upstream"));
+            }))
+            .bindNow();
+
+    // Stands in for the replica owning some of the keys
+    static final DisposableServer peer = HttpServer.create()
+            .host("127.0.0.1")
+            .port(0)
+            .route(routes -> routes.get("/items/{id}", (req, res) -> {
+                forwardedBy.put(req.fullPath(), req.requestHeaders().get(CachePeers.PEER_HEADER));
+                // ?slow answers after the response timeout, like an owner waiting on the upstream
+                Duration delay = req.uri().endsWith("?slow") ? Duration.ofMillis(1500) : Duration.ZERO;
+                return res.header("Cache-Control", "public, max-age=60")
+                        .header("X-Cache", "HIT")
+                        .sendString(Mono.delay(delay).thenReturn("peer"));
+            }))
+            .bindNow();
+
+    @DynamicPropertySource
+    static void routes(DynamicPropertyRegistry registry) {
+        registry.add("spring.cloud.gateway.server.webflux.routes[0].id", () -> "items");
+        registry.add("spring.cloud.gateway.server.webflux.routes[0].uri",
+                () -> "http://127.0.0.1:" + upstream.port());
+        registry.add("spring.cloud.gateway.server.webflux.routes[0].predicates[0]", () -> "Path=/items/**");
+        registry.add("gateway.cache.vary-headers", () -> "X-Variant");
+        registry.add("gateway.cache.peers.enabled", () -> "true");
+        registry.add("gateway.cache.peers.self", () -> SELF);
+        registry.add("gateway.cache.peers.members",
+                () -> SELF + ",http://127.0.0.1:" + peer.port() + "," + DEAD_PEER);
+        registry.add("gateway.cache.peers.timeout", () -> "1s");
+        registry.add("gateway.cache.peers.response-timeout", () -> "1s");
+        registry.add("gateway.cache.peers.retry-after", () -> "1h");
+    }
+
+    @AfterAll
+    static void stopServers() {
+        upstream.disposeNow();
+        peer.disposeNow();
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    Cache<CacheKey, CachedResponse> cache;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    WebClient client;
+
+    @BeforeEach
+    void setUp() {
+        client = WebClient.create("http://127.0.0.1:" + port);
+        cache.invalidateAll();
+        upstreamHits.clear();
+        peerHeaderSeenUpstream.clear();
+        forwardedBy.clear();
+    }
+
+    ResponseEntity<String> get(String uri) {
+        return client.get().uri(uri).retrieve().toEntity(String.class).block(Duration.ofSeconds(10));
+    }
+
+    /** A path whose key is owned by {@code member}. */
+    String ownedBy(String member) {
+        return ownedBy(member, "");
+    }
+
+    /** A path with {@code query} whose key is owned by {@code member}. */
+    String ownedBy(String member, String query) {
+        HashRing ring = new HashRing(List.of(SELF, "http://127.0.0.1:" + peer.port(), DEAD_PEER), 160);
+        for (int i = 0;; i++) {
+            String path = "/items/" + member.hashCode() + "-" + i + query;
+            if (ring.ownerOf(CacheKey.of("GET", path, "")).equals(member)) {
+                return path;
+            }
+        }
+    }
+
+    int hits(String path) {
+        AtomicInteger n = upstreamHits.get(path);
+        return n == null ? 0 : n.get();
+    }
+
+    @Test
+    void ownKeysAreCachedHere() {
+        String path = ownedBy(SELF);
+
+        get(path);
+        ResponseEntity<String> second = get(path);
+
+        assertThat(second.getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        assertThat(hits(path)).isEqualTo(1);
+        assertThat(forwardedBy).isEmpty();
+    }
+
+    @Test
+    void missesForPeerKeysAreAnsweredByTheOwnerAndNotStoredHere() {
+        String path = ownedBy("http://127.0.0.1:" + peer.port());
+
+        ResponseEntity<String> response = get(path);
+
+        assertThat(response.getBody()).isEqualTo("peer");
+        assertThat(response.getHeaders().getFirst("X-Cache")).isEqualTo("HIT-PEER");
+        assertThat(forwardedBy).containsEntry(path, SELF);
+        assertThat(hits(path)).isZero();
+        assertThat(cache.asMap()).isEmpty();
+    }
+
+    @Test
+    void requestsFromPeersAreServedHereWithoutTheMarker() {
+        String path = ownedBy("http://127.0.0.1:" + peer.port());
+
+        ResponseEntity<String> response = client.get().uri(path).header(CachePeers.PEER_HEADER, "http://other")
+                .retrieve().toEntity(String.class).block(Duration.ofSeconds(10));
+
+        assertThat(response.getBody()).isEqualTo("upstream");
+        assertThat(forwardedBy).isEmpty();
+        assertThat(peerHeaderSeenUpstream).isEmpty();
+    }
+
+    @Test
+    void slowOwnerFallsBackToUpstreamButStaysInTheRing() {
+        String owner = "http://127.0.0.1:" + peer.port();
+        String slow = ownedBy(owner, "?slow");
+
+        assertThat(get(slow).getBody()).isEqualTo("upstream");
+        assertThat(forwardedBy).containsKey(slow.replace("?slow", ""));
+
+        String path = ownedBy(owner);
+        assertThat(get(path).getBody()).isEqualTo("peer");
+    }
+
+    @Test
+    void unreachablePeerFallsBackToUpstream() {
+        String path = ownedBy(DEAD_PEER);
+        double failedBefore = meterRegistry.counter("gateway.cache.peer.requests", "outcome", "failed").count();
+
+        assertThat(get(path).getBody()).isEqualTo("upstream");
+        assertThat(get(path).getHeaders().getFirst("X-Cache")).isEqualTo("HIT"); // the peer is skipped now
+
+        assertThat(hits(path)).isEqualTo(1);
+        assertThat(meterRegistry.counter("gateway.cache.peer.requests", "outcome", "failed").count())
+                .isEqualTo(failedBefore + 1);
+    }
+}
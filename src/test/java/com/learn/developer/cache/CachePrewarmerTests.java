@@ -0,0 +1,79 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+class CachePrewarmerTests {
+
+    final MeterRegistry registry = new SimpleMeterRegistry();
+    final Map<String, String> requested = new ConcurrentHashMap<>();
+
+    // records each request's path and Accept header; /missing answers 404
+    final DisposableServer gateway = HttpServer.create()
+            .host("127.0.0.1")
+            .port(0)
+            .handle((req, res) -> {
+                requested.put(req.uri(), String.valueOf(req.requestHeaders().get("Accept")));
+                return req.uri().startsWith("/missing")
+                        ? res.status(404).send()
+                        : res.sendString(Mono.just("{}")).then();
+            })
+            .bindNow();
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void stop() {
+        gateway.disposeNow();
+    }
+
+    @Test
+    void savedKeysAreReadBackWithTheirVaryHeaders() throws Exception {
+        Path file = dir.resolve("keys.txt");
+        List<CacheKey> keys = List.of(
+                CacheKey.of("GET", "/items/1?b=2&a=1", "accept:application/json|accept-language:en"),
+                CacheKey.of("GET", "/items/2", ""));
+
+        CachePrewarmer.writeKeys(file, keys);
+
+        assertThat(CachePrewarmer.readKeys(file)).containsExactlyElementsOf(keys);
+        assertThat(CachePrewarmer.readKeys(dir.resolve("absent.txt"))).isEmpty();
+    }
+
+    @Test
+    void configuredUrlsAndSavedKeysAreRequested() throws Exception {
+        CacheProperties.Prewarm props = new CacheProperties.Prewarm();
+        props.setUrls(List.of("/items/1", "/missing"));
+        props.setTopKeys(10);
+        props.setKeysFile(dir.resolve("keys.txt").toString());
+        CachePrewarmer.writeKeys(Path.of(props.getKeysFile()),
+                List.of(CacheKey.of("GET", "/items/1", ""), CacheKey.of("GET", "/items/2", "accept:text/html")));
+        CachePrewarmer prewarmer = new CachePrewarmer(null, null, props, registry);
+
+        List<CacheKey> keys = prewarmer.keys();
+        Long warmed = prewarmer.prewarm(URI.create("http://127.0.0.1:" + gateway.port()), keys)
+                .block(Duration.ofSeconds(10));
+
+        assertThat(keys).hasSize(3); // /items/1 is listed once
+        assertThat(warmed).isEqualTo(2);
+        assertThat(requested).containsEntry("/items/2", "text/html").containsKeys("/items/1", "/missing");
+        assertThat(registry.counter("gateway.cache.prewarm.requests", "outcome", "failed").count()).isEqualTo(1);
+    }
+}
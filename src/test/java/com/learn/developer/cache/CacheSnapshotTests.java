@@ -0,0 +1,107 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class CacheSnapshotTests {
+
+    static final ResponseExpiry EXPIRY = new ResponseExpiry(Duration.ofMinutes(5));
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void freshEntriesSurviveARestart() throws Exception {
+        Cache<CacheKey, CachedResponse> before = newCache();
+        CacheKey fresh = CacheKey.of("GET", "/items/1", "accept:application/json");
+        before.put(fresh, entry("one", Instant.now(), 60));
+        before.put(CacheKey.of("GET", "/items/2", ""), entry("two", Instant.now().minusSeconds(120), 60));
+
+        assertThat(snapshot(before).write()).isEqualTo(1); // the expired entry is not written
+
+        Cache<CacheKey, CachedResponse> after = newCache();
+        assertThat(snapshot(after).load()).isEqualTo(1);
+        CachedResponse restored = after.getIfPresent(fresh);
+        assertThat(restored).isNotNull();
+        assertThat(StandardCharsets.UTF_8.decode(restored.getBody()).toString()).isEqualTo("one");
+        assertThat(restored.getETag()).isEqualTo("\"one\"");
+        assertThat(restored.getMaxAgeSeconds()).isEqualTo(60);
+    }
+
+    @Test
+    void corruptAndTruncatedRecordsAreSkipped() throws Exception {
+        Cache<CacheKey, CachedResponse> before = newCache();
+        before.put(CacheKey.of("GET", "/items/1", ""), entry("body", Instant.now(), 60));
+        snapshot(before).write();
+        Path file = dir.resolve("cache.snapshot");
+        byte[] valid = Files.readAllBytes(file);
+
+        byte[] flipped = valid.clone();
+        flipped[flipped.length - 1] ^= 1;
+        Files.write(file, flipped);
+        Cache<CacheKey, CachedResponse> after = newCache();
+        assertThat(snapshot(after).load()).isZero();
+
+        // a valid record followed by a partial copy of it, as left by a crash mid-write
+        byte[] truncated = Arrays.copyOf(valid, valid.length + (valid.length - 8) / 2);
+        System.arraycopy(valid, 8, truncated, valid.length, truncated.length - valid.length);
+        Files.write(file, truncated);
+        assertThat(snapshot(after).load()).isEqualTo(1);
+    }
+
+    @Test
+    void restoredResourcesAreKeyedByTheirVary() throws Exception {
+        Cache<CacheKey, CachedResponse> before = newCache();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setVary(List.of("Accept-Language"));
+        before.put(CacheKey.of("GET", "/greeting", "accept-language:fr"),
+                new CachedResponse(CachedBody.heap("bonjour".getBytes(StandardCharsets.UTF_8)), 200, headers,
+                        Instant.now(), 60, 0, 0));
+        snapshot(before).write();
+
+        VaryIndex varyIndex = new VaryIndex(100);
+        assertThat(snapshot(newCache(), varyIndex).load()).isEqualTo(1);
+        assertThat(varyIndex.get(CacheKey.of("GET", "/greeting", ""))).containsExactly("accept-language");
+    }
+
+    private CacheSnapshot snapshot(Cache<CacheKey, CachedResponse> cache) {
+        return snapshot(cache, null);
+    }
+
+    private CacheSnapshot snapshot(Cache<CacheKey, CachedResponse> cache, VaryIndex varyIndex) {
+        CacheProperties props = new CacheProperties();
+        props.getSnapshot().setPath(dir.resolve("cache.snapshot").toString());
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CachePolicy policy = new CachePolicy(CachePolicy.DEFAULT_ROUTE, props.getTtl(), props.getMaxBodyBytes(),
+                props.getVaryHeaders(), false, false, cache, false, false, registry);
+        return new CacheSnapshot(policy, EXPIRY, BodyStore.heap(), new InvalidationIndex(), varyIndex, props,
+                registry);
+    }
+
+    private static Cache<CacheKey, CachedResponse> newCache() {
+        return Caffeine.newBuilder().expireAfter(EXPIRY).build();
+    }
+
+    private static CachedResponse entry(String body, Instant storedAt, long maxAge) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag("\"" + body + "\"");
+        return new CachedResponse(CachedBody.heap(body.getBytes(StandardCharsets.UTF_8)), 200, headers, storedAt,
+                maxAge, 0, 0);
+    }
+}
@@ -0,0 +1,58 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class CacheWeightTests {
+
+    @Test
+    void smallResponsesWeighMostlyTheirHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, "application/json");
+        headers.set(HttpHeaders.CACHE_CONTROL, "public, max-age=60");
+        headers.set(HttpHeaders.ETAG, "\"3f2a9c\"");
+        CachedResponse small = entry("{\"id\":1}", headers);
+
+        assertThat(small.weight()).isGreaterThan(500);
+        assertThat(small.weight()).isGreaterThan(50 * small.getBodyLength());
+
+        headers.add(HttpHeaders.VARY, "Accept-Encoding");
+        assertThat(entry("{\"id\":1}", headers).weight())
+                .isGreaterThanOrEqualTo(small.weight() + 2 * "Vary".length() + "Accept-Encoding".length());
+        // a large body dominates its entry
+        assertThat(entry("x".repeat(64 * 1024), headers).weight()).isBetween(64 * 1024, 66 * 1024);
+    }
+
+    @Test
+    void theCacheTracksTheWeightOfKeysAndValues() {
+        Cache<CacheKey, CachedResponse> cache = CacheConfig.newCache(1024 * 1024,
+                new ResponseExpiry(Duration.ofMinutes(5)), null, new InvalidationIndex(), null,
+                new SimpleMeterRegistry().counter("evictions"));
+        long expected = 0;
+        for (int i = 0; i < 10; i++) {
+            CacheKey key = CacheKey.of("GET", "/items/" + i + "?fields=id,name", "accept:application/json");
+            CachedResponse value = entry("{\"id\":" + i + "}", new HttpHeaders());
+            cache.put(key, value);
+            expected += CacheConfig.weight(key, value);
+        }
+        cache.cleanUp();
+
+        assertThat(CacheConfig.weightedSize(cache)).isEqualTo((double) expected);
+        assertThat(CacheConfig.maximumWeight(cache)).isEqualTo(1024.0 * 1024);
+    }
+
+    static CachedResponse entry(String body, HttpHeaders headers) {
+        return new CachedResponse(CachedBody.heap(body.getBytes(StandardCharsets.UTF_8)), 200, headers,
+                Instant.now(), 60, 0, 0);
+    }
+}
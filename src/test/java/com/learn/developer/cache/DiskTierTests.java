@@ -0,0 +1,144 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class DiskTierTests {
+
+    static final ResponseExpiry EXPIRY = new ResponseExpiry(Duration.ofMinutes(5));
+
+    @TempDir
+    Path dir;
+
+    DiskTier tier;
+
+    @AfterEach
+    void close() throws Exception {
+        tier.close();
+    }
+
+    @Test
+    void demotedEntryIsPromotedBackToTheHeapTier() throws Exception {
+        tier = newTier(1024 * 1024, 64 * 1024);
+        Cache<CacheKey, CachedResponse> heap = Caffeine.newBuilder().build();
+        CacheKey key = CacheKey.of("GET", "/items/1", "");
+
+        tier.demote(key, entry("one"));
+        tier.awaitWrites();
+        assertThat(tier.size()).isEqualTo(1);
+
+        CachedResponse promoted = tier.promote(key, heap).block();
+        assertThat(StandardCharsets.UTF_8.decode(promoted.getBody()).toString()).isEqualTo("one");
+        assertThat(promoted.getETag()).isEqualTo("\"one\"");
+        assertThat(heap.getIfPresent(key)).isSameAs(promoted);
+        assertThat(tier.size()).isZero();
+        assertThat(tier.promote(key, heap).block()).isNull();
+    }
+
+    @Test
+    void oldestSegmentIsDroppedAtTheSizeLimit() {
+        tier = newTier(4 * 1024, 1024);
+        String body = "x".repeat(600); // one record per segment
+
+        for (int i = 0; i < 10; i++) {
+            tier.demote(CacheKey.of("GET", "/items/" + i, ""), entry(body));
+        }
+        tier.awaitWrites();
+
+        assertThat(tier.bytes()).isLessThanOrEqualTo(4 * 1024);
+        assertThat(tier.size()).isBetween(1L, 6L);
+        Cache<CacheKey, CachedResponse> heap = Caffeine.newBuilder().build();
+        assertThat(tier.promote(CacheKey.of("GET", "/items/0", ""), heap).block()).isNull();
+        assertThat(tier.promote(CacheKey.of("GET", "/items/9", ""), heap).block()).isNotNull();
+    }
+
+    @Test
+    void sparseSegmentsAreCompacted() {
+        tier = newTier(1024 * 1024, 2 * 1024);
+        String body = "y".repeat(400); // four records per segment
+        for (int i = 0; i < 4; i++) {
+            tier.demote(CacheKey.of("GET", "/items/" + i, ""), entry(body));
+        }
+        tier.awaitWrites();
+        for (int i = 0; i < 3; i++) {
+            tier.invalidate(CacheKey.of("GET", "/items/" + i, ""));
+        }
+        long before = tier.bytes();
+
+        // rolling to a new segment compacts the sealed one, which is now mostly dead
+        tier.demote(CacheKey.of("GET", "/items/4", ""), entry(body));
+        tier.awaitWrites();
+        tier.awaitWrites();
+
+        assertThat(tier.size()).isEqualTo(2);
+        assertThat(tier.bytes()).isLessThan(before);
+        Cache<CacheKey, CachedResponse> heap = Caffeine.newBuilder().build();
+        assertThat(tier.promote(CacheKey.of("GET", "/items/3", ""), heap).block()).isNotNull();
+    }
+
+    @Test
+    void invalidationCancelsQueuedDemotions() {
+        tier = newTier(1024 * 1024, 64 * 1024);
+        for (int i = 0; i < 100; i++) {
+            CacheKey key = CacheKey.of("GET", "/items/" + i, "");
+            tier.demote(key, entry("queued"));
+            if (i % 2 == 0) {
+                tier.invalidate(key);
+            } else {
+                tier.invalidateMatching((k, tags) -> k.equals(key));
+            }
+        }
+        tier.awaitWrites();
+
+        assertThat(tier.size()).isZero();
+        Cache<CacheKey, CachedResponse> heap = Caffeine.newBuilder().build();
+        assertThat(tier.promote(CacheKey.of("GET", "/items/99", ""), heap).block()).isNull();
+    }
+
+    @Test
+    void privateEntriesAreNotDemoted() {
+        tier = newTier(1024 * 1024, 64 * 1024);
+        CacheKey key = CacheKey.of("GET", "/items/1", "");
+
+        tier.demote(key.withPartition("p1"), entry("mine"));
+        tier.demote(key.withPartition(PrincipalPartitions.SHARED), entry("ours"));
+        tier.awaitWrites();
+
+        assertThat(tier.size()).isEqualTo(1);
+        Cache<CacheKey, CachedResponse> heap = Caffeine.newBuilder().build();
+        assertThat(tier.promote(key.withPartition("p1"), heap).block()).isNull();
+    }
+
+    private DiskTier newTier(long maxBytes, long segmentBytes) {
+        CacheProperties.Disk props = new CacheProperties.Disk();
+        props.setDirectory(dir.toString());
+        props.setMaxBytes(maxBytes);
+        props.setSegmentBytes(segmentBytes);
+        try {
+            return new DiskTier(props, EXPIRY, BodyStore.heap(), new InvalidationIndex(), new SimpleMeterRegistry());
+        } catch (java.io.IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    private static CachedResponse entry(String body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag("\"" + body.substring(0, Math.min(body.length(), 8)) + "\"");
+        return new CachedResponse(CachedBody.heap(body.getBytes(StandardCharsets.UTF_8)), 200, headers,
+                Instant.now(), 60, 0, 0);
+    }
+}
@@ -0,0 +1,41 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class HashRingTests {
+
+    static final int KEYS = 20_000;
+
+    @Test
+    void keysSpreadEvenlyOverTheMembers() {
+        HashRing ring = new HashRing(List.of("http://a:8080", "http://b:8080", "http://c:8080"), 160);
+
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            owned.merge(ring.ownerOf(CacheKey.of("GET", "/items/" + i, "")), 1, Integer::sum);
+        }
+
+        assertThat(owned).hasSize(3);
+        assertThat(owned.values()).allSatisfy(n -> assertThat(n).isBetween(KEYS / 3 * 85 / 100, KEYS / 3 * 115 / 100));
+    }
+
+    @Test
+    void aMemberLeavingOnlyMovesItsOwnKeys() {
+        HashRing before = new HashRing(List.of("http://a:8080", "http://b:8080", "http://c:8080"), 160);
+        HashRing after = new HashRing(List.of("http://a:8080", "http://c:8080"), 160);
+
+        for (int i = 0; i < KEYS; i++) {
+            CacheKey key = CacheKey.of("GET", "/items/" + i, "");
+            String owner = before.ownerOf(key);
+            if (!owner.equals("http://b:8080")) {
+                assertThat(after.ownerOf(key)).isEqualTo(owner);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class InvalidationBusTests {
+
+    final LoopbackTransport.Group group = new LoopbackTransport.Group();
+    final List<InvalidationBus> buses = new ArrayList<>();
+
+    @AfterEach
+    void stop() {
+        buses.forEach(InvalidationBus::stop);
+    }
+
+    @Test
+    void batchesAreCoalescedAndAppliedByPeersOnly() {
+        List<Invalidation> appliedBySender = new ArrayList<>();
+        List<Invalidation> appliedByPeer = new ArrayList<>();
+        MeterRegistry registry = new SimpleMeterRegistry();
+        InvalidationBus sender = bus(new LoopbackTransport(group), 100, registry, appliedBySender::add);
+        bus(new LoopbackTransport(group), 100, new SimpleMeterRegistry(), appliedByPeer::add);
+
+        sender.publish(Invalidation.path("/items/1"));
+        sender.publish(Invalidation.tag("catalog"));
+        sender.publish(Invalidation.path("/items/1"));
+        sender.publish(Invalidation.key(CacheKey.of("GET", "/items/2?b=1&a=2", "accept:text/html")));
+        sender.flush();
+        sender.flush(); // nothing pending
+
+        assertThat(appliedByPeer).containsExactly(
+                Invalidation.path("/items/1"),
+                Invalidation.tag("catalog"),
+                Invalidation.key(CacheKey.of("GET", "/items/2?a=2&b=1", "accept:text/html")));
+        assertThat(appliedBySender).isEmpty();
+        assertThat(registry.counter("gateway.cache.cluster.messages", "outcome", "sent").count()).isEqualTo(1);
+
+        appliedByPeer.clear();
+        sender.publish(Invalidation.prefix("/users"));
+        sender.publish(Invalidation.clear()); // subsumes what was queued before it
+        sender.publish(Invalidation.glob("/users/*"));
+        sender.flush();
+        assertThat(appliedByPeer).containsExactly(Invalidation.clear(), Invalidation.glob("/users/*"));
+    }
+
+    @Test
+    void largeAndFullBatchesAreSplitAndSentRightAway() throws Exception {
+        List<byte[]> wire = Collections.synchronizedList(new ArrayList<>());
+        InvalidationBus sender = bus(transport(wire), 3, new SimpleMeterRegistry(), i -> {
+        });
+
+        sender.publish(Invalidation.path("/a"));
+        sender.publish(Invalidation.path("/b"));
+        assertThat(wire).isEmpty();
+        sender.publish(Invalidation.path("/c"));
+        awaitSize(wire, 1); // flushed on another thread
+
+        sender.publish(Invalidation.path("/" + "x".repeat(150)));
+        sender.publish(Invalidation.path("/" + "y".repeat(150)));
+        sender.flush();
+        assertThat(wire).hasSize(3); // 256 bytes per message fit one of them
+    }
+
+    @Test
+    void duplicatesAreDroppedAndGapsClearTheCache() {
+        List<byte[]> wire = new ArrayList<>();
+        InvalidationBus sender = bus(transport(wire), 100, new SimpleMeterRegistry(), i -> {
+        });
+        for (int i = 1; i <= 3; i++) {
+            sender.publish(Invalidation.path("/items/" + i));
+            sender.flush();
+        }
+
+        List<Invalidation> applied = new ArrayList<>();
+        MeterRegistry registry = new SimpleMeterRegistry();
+        InvalidationBus peer = bus(transport(new ArrayList<>()), 100, registry, applied::add);
+        peer.receive(wire.get(0));
+        peer.receive(wire.get(0));
+        peer.receive(wire.get(2)); // the second one was lost
+        peer.receive(wire.get(1)); // and arrives late
+        peer.receive(new byte[] { 1, 2, 3 });
+
+        assertThat(applied).containsExactly(
+                Invalidation.path("/items/1"),
+                Invalidation.clear(),
+                Invalidation.path("/items/3"));
+        assertThat(registry.counter("gateway.cache.cluster.gaps").count()).isEqualTo(1);
+        assertThat(registry.counter("gateway.cache.cluster.messages", "outcome", "duplicate").count()).isEqualTo(2);
+        assertThat(registry.counter("gateway.cache.cluster.messages", "outcome", "corrupt").count()).isEqualTo(1);
+    }
+
+    @Test
+    void unsignedOrForgedMessagesAreDropped() {
+        List<byte[]> wire = new ArrayList<>();
+        InvalidationBus sender = bus(transport(wire), 100, new SimpleMeterRegistry(), i -> {
+        });
+        sender.publish(Invalidation.path("/items/1"));
+        sender.flush();
+        byte[] tampered = wire.get(0).clone();
+        tampered[10] ^= 1; // within the sender's node id
+
+        List<Invalidation> applied = new ArrayList<>();
+        MeterRegistry registry = new SimpleMeterRegistry();
+        InvalidationBus peer = bus(transport(new ArrayList<>()), 100, registry, applied::add);
+        peer.receive(tampered);
+        assertThat(applied).isEmpty();
+        assertThat(registry.counter("gateway.cache.cluster.messages", "outcome", "unauthenticated").count())
+                .isEqualTo(1);
+
+        CacheProperties.Cluster otherKey = new CacheProperties.Cluster();
+        otherKey.setSharedKey("another-key");
+        List<byte[]> forged = new ArrayList<>();
+        InvalidationBus forger = new InvalidationBus(transport(forged), otherKey, new SimpleMeterRegistry());
+        forger.publish(Invalidation.clear());
+        forger.flush();
+        peer.receive(forged.get(0));
+        assertThat(applied).isEmpty();
+
+        peer.receive(wire.get(0));
+        assertThat(applied).containsExactly(Invalidation.path("/items/1"));
+    }
+
+    @Test
+    void invalidationsTooLargeForADatagramAreSentAsAClear() {
+        List<byte[]> wire = new ArrayList<>();
+        InvalidationBus sender = bus(transport(wire), 100, new SimpleMeterRegistry(), i -> {
+        });
+        sender.publish(Invalidation.glob("/" + "x".repeat(70_000)));
+        sender.publish(Invalidation.path("/items/1"));
+        sender.flush();
+
+        List<Invalidation> applied = new ArrayList<>();
+        InvalidationBus peer = bus(transport(new ArrayList<>()), 100, new SimpleMeterRegistry(), applied::add);
+        wire.forEach(peer::receive);
+        assertThat(applied).containsExactly(Invalidation.clear(), Invalidation.path("/items/1"));
+    }
+
+    private static void awaitSize(List<byte[]> wire, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (wire.size() < size) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(1);
+        }
+        assertThat(wire).hasSize(size);
+    }
+
+    private InvalidationBus bus(InvalidationTransport transport, int maxBatch, MeterRegistry registry,
+            Consumer<Invalidation> receiver) {
+        CacheProperties.Cluster props = new CacheProperties.Cluster();
+        props.setSharedKey("test-key");
+        props.setBatchInterval(Duration.ofHours(1)); // flushed by the tests
+        props.setMaxBatch(maxBatch);
+        props.setMaxMessageBytes(256);
+        InvalidationBus bus = new InvalidationBus(transport, props, registry);
+        bus.onReceive(receiver);
+        bus.start();
+        buses.add(bus);
+        return bus;
+    }
+
+    /** Records what is sent and delivers nothing. */
+    private static InvalidationTransport transport(List<byte[]> wire) {
+        return new InvalidationTransport() {
+            @Override
+            public void start(Consumer<byte[]> receiver) {
+            }
+
+            @Override
+            public void send(byte[] message) {
+                wire.add(message);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,75 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class InvalidationIndexTests {
+
+    InvalidationIndex index;
+    Cache<CacheKey, CachedResponse> cache;
+
+    @BeforeEach
+    void setUp() {
+        index = new InvalidationIndex();
+        cache = CacheConfig.newCache(1024 * 1024, new ResponseExpiry(Duration.ofMinutes(5)), null, index, null,
+                new SimpleMeterRegistry().counter("evictions"));
+    }
+
+    @Test
+    void prefixAndGlobMatchWholeSegments() {
+        put("/users/42", "");
+        put("/users/42?fields=name", "");
+        put("/users/42/orders", "");
+        put("/users/420", "");
+        put("/users/7/orders", "");
+
+        assertThat(index.invalidatePrefix("/users/42")).isEqualTo(3);
+        assertThat(paths()).containsExactlyInAnyOrder("/users/420", "/users/7/orders");
+
+        assertThat(index.invalidateGlob("/users/*/orders")).isEqualTo(1);
+        assertThat(index.invalidateGlob("/**/4?0")).isEqualTo(1);
+        assertThat(cache.asMap()).isEmpty();
+        assertThat(index.invalidatePrefix("/users")).isZero();
+    }
+
+    @Test
+    void surrogateKeysSelectEntriesAndReplacedValuesAreReindexed() {
+        put("/catalog/1", "catalog featured");
+        put("/catalog/2", "catalog");
+        put("/users/1", "");
+        put("/catalog/2", "archive"); // replaces the tags of the first value
+
+        assertThat(index.invalidateTag("catalog")).isEqualTo(1);
+        assertThat(paths()).containsExactlyInAnyOrder("/catalog/2", "/users/1");
+        assertThat(index.invalidateTag("archive")).isEqualTo(1);
+        assertThat(index.invalidateTag("featured")).isZero();
+    }
+
+    private void put(String pathAndQuery, String surrogateKeys) {
+        HttpHeaders headers = new HttpHeaders();
+        if (!surrogateKeys.isEmpty()) {
+            headers.set(InvalidationIndex.SURROGATE_KEY, surrogateKeys);
+        }
+        CachedResponse value = new CachedResponse(CachedBody.heap("x".getBytes(StandardCharsets.UTF_8)), 200,
+                headers, Instant.now(), 60, 0, 0);
+        CacheKey key = CacheKey.of("GET", pathAndQuery, "");
+        cache.put(key, value);
+        index.add(cache, key, value);
+    }
+
+    private List<String> paths() {
+        return cache.asMap().keySet().stream().map(CacheKey::getPathAndQuery).toList();
+    }
+}
@@ -0,0 +1,59 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PrincipalPartitionsTests {
+
+    @Test
+    void principalsAreKeyedByTheDigestOfTheirCredential() {
+        PrincipalPartitions partitions = new PrincipalPartitions(new CacheProperties.Authorized(),
+                new SimpleMeterRegistry());
+
+        String alice = partitions.of(withToken("{\"sub\":\"alice\",\"tenant\":\"acme\"}"));
+        String forged = partitions.of(withToken("{\"sub\":\"mallory\",\"tenant\":\"acme\"}"));
+
+        // a token claiming the same tenant is still another credential, hence another principal
+        assertThat(alice).isNotEqualTo(forged).doesNotContain("acme");
+        assertThat(partitions.of(withToken("{\"sub\":\"alice\",\"tenant\":\"acme\"}"))).isEqualTo(alice);
+        assertThat(partitions.of(MockServerHttpRequest.get("/").header("Authorization", "Basic ZGF2ZTpwdw==").build()))
+                .isNotNull().isNotEqualTo(alice);
+        assertThat(partitions.of(MockServerHttpRequest.get("/").build())).isNull();
+    }
+
+    @Test
+    void eachPrincipalHoldsAtMostItsOwnWeight() {
+        CacheProperties.Authorized props = new CacheProperties.Authorized();
+        props.setMaxWeightPerPrincipal(10_000);
+        PrincipalPartitions partitions = new PrincipalPartitions(props, new SimpleMeterRegistry());
+        CacheKey key = CacheKey.of("GET", "/items/1", "").withPartition("p1");
+        CachedResponse value = CacheWeightTests.entry("x".repeat(4000), null);
+        int weight = CacheConfig.weight(key, value);
+
+        assertThat(partitions.tryCharge("p1", weight)).isTrue();
+        assertThat(partitions.tryCharge("p1", weight)).isTrue();
+        assertThat(partitions.tryCharge("p1", weight)).isFalse();
+        assertThat(partitions.tryCharge("p2", weight)).isTrue();
+        assertThat(partitions.tryCharge(PrincipalPartitions.SHARED, 1_000_000)).isTrue();
+
+        partitions.removed(key, value);
+        assertThat(partitions.weightOf("p1")).isEqualTo(weight);
+        assertThat(partitions.tryCharge("p1", weight)).isTrue();
+        assertThat(key.getPartition()).isEqualTo("p1");
+        assertThat(key.withPartition("p2").getPartition()).isEqualTo("p2");
+    }
+
+    static MockServerHttpRequest withToken(String payload) {
+        Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+        String token = base64.encodeToString("{\"alg\":\"none\"}".getBytes(StandardCharsets.UTF_8)) + '.'
+                + base64.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + ".c2ln";
+        return MockServerHttpRequest.get("/").header("Authorization", "Bearer " + token).build();
+    }
+}
@@ -0,0 +1,515 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ResponseCacheFilterTests {
+
+    static final Map<String, AtomicInteger> upstreamHits = new ConcurrentHashMap<>();
+    static final Map<String, Integer> upstreamFailures = new ConcurrentHashMap<>();
+    static final Map<String, AtomicInteger> upstreamNotModified = new ConcurrentHashMap<>();
+    static final Map<String, String> upstreamCacheControl = new ConcurrentHashMap<>();
+
+    // Stub upstream: /items/{id}?delayMs=..&cc=..&etag=..&pad=..&vary=..&status=.. echoes the id and a per-path
+    // hit counter; status=3xx redirects to /items/{id}/moved without a body, and upstreamCacheControl overrides cc
+    static final DisposableServer upstream = HttpServer.create()
+            .host("127.0.0.1")
+            .port(0)
+            .route(routes -> routes.get("/items/{id}", (req, res) -> {
+                String path = req.fullPath();
+                int n = upstreamHits.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+                Map<String, List<String>> query = UriComponentsBuilder.fromUriString(req.uri()).build(true)
+                        .getQueryParams();
+                long delay = query.containsKey("delayMs") ? Long.parseLong(query.get("delayMs").get(0)) : 0;
+                String cc = upstreamCacheControl.getOrDefault(path, query.containsKey("cc")
+                        ? UriUtils.decode(query.get("cc").get(0), StandardCharsets.UTF_8)
+                        : "public, max-age=60");
+                String pad = query.containsKey("pad")
+                        ? ",\"pad\":\"" + "x".repeat(Integer.parseInt(query.get("pad").get(0))) + "\""
+                        : "";
+                Integer failure = upstreamFailures.get(path);
+                if (failure != null) {
+                    return res.status(failure).sendString(Mono.just("upstream failure"));
+                }
+                if (query.containsKey("etag")) {
+                    String etag = "\"" + query.get("etag").get(0) + "\"";
+                    if (etag.equals(req.requestHeaders().get("If-None-Match"))) {
+                        upstreamNotModified.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+                        return res.status(304).header("Cache-Control", cc).header("ETag", etag).send();
+                    }
+                    res.header("ETag", etag);
+                }
+                if (query.containsKey("vary")) {
+                    res.header("Vary", query.get("vary").get(0));
+                }
+                if (query.containsKey("status")) {
+                    int status = Integer.parseInt(query.get("status").get(0));
+                    res.status(status).header("Cache-Control", cc);
+                    if (status / 100 == 3) {
+                        return res.header("Location", "/items/" + req.param("id") + "/moved").send();
+                    }
+                }
+                return res.header("Cache-Control", cc)
+                        .header("Content-Type", "application/json")
+                        .sendString(Mono.delay(Duration.ofMillis(delay))
+                                .map(t -> "{\"id\":\"" + req.param("id") + "\",\"n\":" + n + pad + "}"));
+            }).post("/items/{id}", (req, res) -> {
+                // writes answer ?status=.. (default 204) with an optional ?location=.. header
+                Map<String, List<String>> query = UriComponentsBuilder.fromUriString(req.uri()).build(true)
+                        .getQueryParams();
+                if (query.containsKey("location")) {
+                    res.header("Location", query.get("location").get(0));
+                }
+                int status = query.containsKey("status") ? Integer.parseInt(query.get("status").get(0)) : 204;
+                return req.receive().then(res.status(status).send().then());
+            }))
+            .bindNow();
+
+    @DynamicPropertySource
+    static void routes(DynamicPropertyRegistry registry) {
+        registry.add("spring.cloud.gateway.server.webflux.routes[0].id", () -> "items");
+        registry.add("spring.cloud.gateway.server.webflux.routes[0].uri",
+                () -> "http://127.0.0.1:" + upstream.port());
+        registry.add("spring.cloud.gateway.server.webflux.routes[0].predicates[0]", () -> "Path=/items/**");
+        registry.add("spring.cloud.gateway.server.webflux.routes[1].id", () -> "catalog");
+        registry.add("spring.cloud.gateway.server.webflux.routes[1].uri",
+                () -> "http://127.0.0.1:" + upstream.port());
+        registry.add("spring.cloud.gateway.server.webflux.routes[1].predicates[0]", () -> "Path=/catalog/**");
+        registry.add("spring.cloud.gateway.server.webflux.routes[1].filters[0]",
+                () -> "RewritePath=/catalog/(?<id>.*), /items/$\\{id}");
+        registry.add("spring.cloud.gateway.server.webflux.routes[1].filters[1]", () -> "ResponseCache=1s,1048576");
+        registry.add("gateway.cache.admin.api-key", () -> "");
+        registry.add("gateway.cache.compression.enabled", () -> "true");
+        registry.add("gateway.cache.refresh-ahead.enabled", () -> "true");
+        registry.add("gateway.cache.authorized.enabled", () -> "true");
+        registry.add("gateway.cache.negative.enabled", () -> "true");
+    }
+
+    @AfterAll
+    static void stopUpstream() {
+        upstream.disposeNow();
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    Cache<CacheKey, CachedResponse> cache;
+
+    @Autowired
+    NegativeCache negativeCache;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    WebClient client;
+
+    @BeforeEach
+    void setUp() {
+        client = WebClient.create("http://127.0.0.1:" + port);
+        cache.invalidateAll();
+        negativeCache.getCache().invalidateAll();
+        upstreamHits.clear();
+        upstreamFailures.clear();
+        upstreamNotModified.clear();
+        upstreamCacheControl.clear();
+    }
+
+    ResponseEntity<String> get(String uri) {
+        return client.get().uri(uri).retrieve().toEntity(String.class).block(Duration.ofSeconds(10));
+    }
+
+    void post(String uri) {
+        client.post().uri(uri).bodyValue("{}").exchangeToMono(r -> r.releaseBody()).block(Duration.ofSeconds(10));
+    }
+
+    int hits(String path) {
+        AtomicInteger n = upstreamHits.get(path);
+        return n == null ? 0 : n.get();
+    }
+
+    @Test
+    void secondGetIsServedFromCache() {
+        ResponseEntity<String> first = get("/items/1");
+        ResponseEntity<String> second = get("/items/1");
+
+        assertThat(second.getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        assertThat(second.getBody()).isEqualTo(first.getBody());
+        assertThat(hits("/items/1")).isEqualTo(1);
+    }
+
+    @Test
+    void concurrentMissesShareOneUpstreamCall() {
+        List<ResponseEntity<String>> responses = Flux.range(0, 16)
+                .flatMap(i -> client.get().uri("/items/2?delayMs=300").retrieve().toEntity(String.class), 16)
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertThat(responses).hasSize(16).allSatisfy(r -> assertThat(r.getBody()).contains("\"n\":1"));
+        assertThat(hits("/items/2")).isEqualTo(1);
+    }
+
+    @Test
+    void concurrentMissesShareOnlyTheVariantTheyAskedFor() {
+        List<String> tenants = List.of("a", "b", "a", "b");
+        List<String> bodies = Flux.fromIterable(tenants)
+                .flatMapSequential(tenant -> client.get().uri("/items/19?delayMs=300&vary=X-Tenant")
+                        .header("X-Tenant", tenant).retrieve().bodyToMono(String.class), 4)
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertThat(bodies).hasSize(4);
+        assertThat(List.of(bodies.get(1), bodies.get(3))).doesNotContain(bodies.get(0), bodies.get(2));
+        assertThat(hits("/items/19")).isGreaterThanOrEqualTo(2);
+    }
+
+    @Test
+    void noStoreResponsesAreNotShared() {
+        List<ResponseEntity<String>> responses = Flux.range(0, 4)
+                .flatMap(i -> client.get().uri("/items/3?delayMs=200&cc=no-store").retrieve()
+                        .toEntity(String.class), 4)
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertThat(responses).hasSize(4);
+        assertThat(hits("/items/3")).isEqualTo(4);
+    }
+
+    @Test
+    void entriesExpireWithTheirOwnSMaxAge() throws InterruptedException {
+        String uri = "/items/4?cc=max-age=60,s-maxage=1,stale-while-revalidate=0";
+        get(uri);
+        assertThat(get(uri).getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+
+        Thread.sleep(1100);
+        get(uri);
+
+        assertThat(hits("/items/4")).isEqualTo(2);
+    }
+
+    @Test
+    void staleEntryIsServedWhileRevalidatingInBackground() throws InterruptedException {
+        String uri = "/items/5?cc=max-age=1,stale-while-revalidate=30";
+        get(uri);
+        Thread.sleep(1100);
+
+        ResponseEntity<String> stale = get(uri);
+        assertThat(stale.getHeaders().getFirst("X-Cache")).isEqualTo("STALE");
+        assertThat(stale.getBody()).contains("\"n\":1");
+
+        Thread.sleep(300);
+        ResponseEntity<String> refreshed = get(uri);
+        assertThat(refreshed.getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        assertThat(refreshed.getBody()).contains("\"n\":2");
+        assertThat(hits("/items/5")).isEqualTo(2);
+    }
+
+    @Test
+    void staleEntryIsServedWhenUpstreamFails() throws InterruptedException {
+        String uri = "/items/6?cc=max-age=1,stale-while-revalidate=0,stale-if-error=30";
+        get(uri);
+        Thread.sleep(1100);
+        upstreamFailures.put("/items/6", 503);
+
+        ResponseEntity<String> stale = get(uri);
+        assertThat(stale.getStatusCode().value()).isEqualTo(200);
+        assertThat(stale.getHeaders().getFirst("X-Cache")).isEqualTo("STALE");
+        assertThat(stale.getBody()).contains("\"n\":1");
+    }
+
+    @Test
+    void matchingClientValidatorGets304() {
+        String uri = "/items/7?etag=abc";
+        get(uri);
+
+        ResponseEntity<String> conditional = client.get().uri(uri)
+                .header("If-None-Match", "W/\"abc\"")
+                .exchangeToMono(r -> r.toEntity(String.class))
+                .block(Duration.ofSeconds(10));
+
+        assertThat(conditional.getStatusCode().value()).isEqualTo(304);
+        assertThat(conditional.getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        assertThat(conditional.getBody()).isNull();
+    }
+
+    @Test
+    void staleEntryIsRevalidatedWithUpstream304() throws InterruptedException {
+        String uri = "/items/8?etag=v1&cc=max-age=1,stale-while-revalidate=30";
+        get(uri);
+        Thread.sleep(1100);
+
+        assertThat(get(uri).getHeaders().getFirst("X-Cache")).isEqualTo("STALE");
+        Thread.sleep(300);
+
+        ResponseEntity<String> refreshed = get(uri);
+        assertThat(refreshed.getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        assertThat(refreshed.getBody()).contains("\"n\":1");
+        assertThat(upstreamNotModified.get("/items/8")).hasValue(1);
+    }
+
+    @Test
+    void noCacheEntryIsRevalidatedBeforeEveryUse() {
+        String uri = "/items/20?etag=v1&cc=no-cache,max-age=60";
+        get(uri);
+
+        ResponseEntity<String> revalidated = get(uri);
+        assertThat(revalidated.getHeaders().getFirst("X-Cache")).isEqualTo("REVALIDATED");
+        assertThat(revalidated.getBody()).contains("\"n\":1");
+        assertThat(get(uri).getHeaders().getFirst("X-Cache")).isEqualTo("REVALIDATED");
+        assertThat(upstreamNotModified.get("/items/20")).hasValue(2);
+    }
+
+    @Test
+    void successfulWritesInvalidateTheTargetAndItsLocation() {
+        get("/items/w1");
+        get("/items/w1?fields=id");
+        get("/items/w2");
+
+        post("/items/w1?status=500");
+        assertThat(get("/items/w1").getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+
+        post("/items/w1?location=/items/w2");
+        get("/items/w1");
+        get("/items/w1?fields=id");
+        get("/items/w2");
+
+        assertThat(hits("/items/w1")).isEqualTo(4); // both query strings, twice
+        assertThat(hits("/items/w2")).isEqualTo(2);
+    }
+
+    @Test
+    void routePolicyAppliesItsOwnTtlAndBudget() throws InterruptedException {
+        String uri = "/catalog/c1?cc=max-age=60,must-revalidate";
+        get(uri);
+        assertThat(get(uri).getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        assertThat(cache.asMap()).isEmpty();
+
+        Thread.sleep(1100);
+        get(uri);
+
+        assertThat(hits("/items/c1")).isEqualTo(2);
+        assertThat(meterRegistry.get("gateway.cache.route.requests")
+                .tags("route", "catalog", "result", "hit").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void hotEntriesAreRefreshedBeforeTheyExpire() throws InterruptedException {
+        String uri = "/items/r1?cc=max-age=2";
+        get(uri);
+        Thread.sleep(1700); // into the last 20% of the lifetime
+        for (int i = 0; i < 3; i++) {
+            assertThat(get(uri).getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        }
+        Thread.sleep(300);
+        assertThat(hits("/items/r1")).isEqualTo(2); // the third read refreshed it once
+
+        Thread.sleep(300); // past the first response's lifetime
+        ResponseEntity<String> refreshed = get(uri);
+        assertThat(refreshed.getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        assertThat(refreshed.getBody()).contains("\"n\":2");
+    }
+
+    @Test
+    void decisionsAreCountedAndTimed() throws InterruptedException {
+        double bypassed = bypassCount("bypass-header");
+        double noStore = bypassCount("no-store");
+        long timedHits = meterRegistry.get("gateway.cache.request.duration")
+                .tags("route", CacheMetrics.ALL_ROUTES, "outcome", "hit").timer().count();
+        long stores = meterRegistry.get("gateway.cache.store.duration").timer().count();
+
+        client.get().uri("/items/m1").header("X-Bypass-Cache", "true").retrieve().toBodilessEntity()
+                .block(Duration.ofSeconds(10));
+        get("/items/m2?cc=no-store");
+        get("/items/m3");
+        get("/items/m3");
+        Thread.sleep(100); // answers are timed once their write completes, which the client may not wait for
+
+        assertThat(bypassCount("bypass-header")).isEqualTo(bypassed + 1);
+        assertThat(bypassCount("no-store")).isEqualTo(noStore + 1);
+        assertThat(meterRegistry.get("gateway.cache.request.duration")
+                .tags("route", CacheMetrics.ALL_ROUTES, "outcome", "hit").timer().count()).isEqualTo(timedHits + 1);
+        assertThat(meterRegistry.get("gateway.cache.store.duration").timer().count()).isEqualTo(stores + 1);
+    }
+
+    @Test
+    void variantsAreKeyedByTheHeadersTheUpstreamVariesOn() {
+        ResponseEntity<String> en = getWithLanguage("/items/10", "en");
+        ResponseEntity<String> fr = getWithLanguage("/items/10", "fr");
+        assertThat(fr.getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        assertThat(fr.getBody()).isEqualTo(en.getBody());
+        assertThat(hits("/items/10")).isEqualTo(1);
+
+        getWithLanguage("/items/11?vary=Accept-Language", "en");
+        getWithLanguage("/items/11?vary=Accept-Language", "fr");
+        assertThat(getWithLanguage("/items/11?vary=Accept-Language", "en").getHeaders().getFirst("X-Cache"))
+                .isEqualTo("HIT");
+        assertThat(hits("/items/11")).isEqualTo(2);
+
+        getWithLanguage("/items/12?vary=*", "en");
+        getWithLanguage("/items/12?vary=*", "en");
+        assertThat(hits("/items/12")).isEqualTo(2);
+    }
+
+    @Test
+    void adminEvictsTheVariantTheUpstreamVariesOn() {
+        String uri = "/items/21?vary=Accept-Language";
+        getWithLanguage(uri, "en");
+        getWithLanguage(uri, "fr");
+
+        // the values of the default Accept, Accept-Encoding and Accept-Language of a request
+        client.delete().uri("/admin/cache/evict?method=GET&pathAndQuery={uri}&varyValues={values}",
+                uri, "application/json,gzip,en")
+                .retrieve().toBodilessEntity().block(Duration.ofSeconds(10));
+
+        assertThat(getWithLanguage(uri, "en").getHeaders().getFirst("X-Cache")).isNull();
+        assertThat(getWithLanguage(uri, "fr").getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        assertThat(hits("/items/21")).isEqualTo(3);
+    }
+
+    @Test
+    void authorizedResponsesAreSharedOnlyWhenMarkedPublic() {
+        String personal = "/items/13?cc=max-age=60";
+        getAs(personal, "Bearer alice");
+        assertThat(getAs(personal, "Bearer alice").getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        assertThat(getAs(personal, "Bearer bob").getBody()).contains("\"n\":2");
+        assertThat(hits("/items/13")).isEqualTo(2);
+
+        getAs("/items/14", "Bearer alice"); // public, max-age=60
+        assertThat(getAs("/items/14", "Bearer bob").getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        assertThat(hits("/items/14")).isEqualTo(1);
+        assertThat(cache.asMap().keySet()).noneMatch(key -> key.toString().contains("alice"));
+    }
+
+    @Test
+    void sharedEntryThatTurnsPrivateOnRefreshStaysWithItsPrincipal() throws InterruptedException {
+        upstreamCacheControl.put("/items/18", "public, max-age=1, stale-while-revalidate=0");
+        getAs("/items/18", "Bearer alice");
+        assertThat(getAs("/items/18", "Bearer bob").getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+
+        Thread.sleep(1100);
+        upstreamCacheControl.put("/items/18", "max-age=60");
+        assertThat(getAs("/items/18", "Bearer alice").getBody()).contains("\"n\":2");
+        assertThat(getAs("/items/18", "Bearer alice").getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        assertThat(getAs("/items/18", "Bearer bob").getBody()).contains("\"n\":3");
+        assertThat(cache.asMap().keySet())
+                .noneMatch(key -> key.getPath().equals("/items/18") && "*".equals(key.getPartition()));
+    }
+
+    @Test
+    void notFoundsAndPermanentRedirectsAreCachedApart() {
+        getAny("/items/15?status=404");
+        ResponseEntity<String> missing = getAny("/items/15?status=404");
+        assertThat(missing.getStatusCode().value()).isEqualTo(404);
+        assertThat(missing.getHeaders().getFirst("X-Cache")).isEqualTo("HIT");
+        assertThat(hits("/items/15")).isEqualTo(1);
+
+        getAny("/items/16?status=301");
+        ResponseEntity<String> moved = getAny("/items/16?status=301");
+        assertThat(moved.getStatusCode().value()).isEqualTo(301);
+        assertThat(moved.getHeaders().getLocation()).hasToString("/items/16/moved");
+        assertThat(hits("/items/16")).isEqualTo(1);
+
+        getAny("/items/17?status=302"); // not configured
+        getAny("/items/17?status=302");
+        assertThat(hits("/items/17")).isEqualTo(2);
+
+        assertThat(negativeCache.getCache().asMap()).hasSize(2);
+        assertThat(cache.asMap().keySet()).noneMatch(key -> key.getPath().matches("/items/1[567]"));
+        assertThat(meterRegistry.get("gateway.cache.negative.requests").tag("result", "hit").counter().count())
+                .isEqualTo(2);
+    }
+
+    // answers with any status, where retrieve() would fail on 4xx
+    ResponseEntity<String> getAny(String uri) {
+        return client.get().uri(uri).exchangeToMono(r -> r.toEntity(String.class)).block(Duration.ofSeconds(10));
+    }
+
+    ResponseEntity<String> getAs(String uri, String authorization) {
+        return client.get().uri(uri).header("Authorization", authorization).retrieve().toEntity(String.class)
+                .block(Duration.ofSeconds(10));
+    }
+
+    ResponseEntity<String> getWithLanguage(String uri, String language) {
+        return client.get().uri(uri).header("Accept-Language", language).retrieve().toEntity(String.class)
+                .block(Duration.ofSeconds(10));
+    }
+
+    double bypassCount(String reason) {
+        return meterRegistry.get("gateway.cache.bypass")
+                .tags("route", CacheMetrics.ALL_ROUTES, "reason", reason).counter().count();
+    }
+
+    @Test
+    void bodiesAreStoredGzippedAndInflatedForClientsWithoutGzip() throws Exception {
+        String uri = "/items/9?pad=4000";
+        RawResponse miss = rawGet(uri, "identity");
+        assertThat(miss.headers.get("Content-Encoding")).isNull();
+        // the entry is stored as received and gzipped in the background
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (cache.asMap().entrySet().stream().noneMatch(e -> e.getKey().getPath().equals("/items/9")
+                && "gzip".equals(e.getValue().getHeaders().getFirst("Content-Encoding")))) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+
+        RawResponse gzip = rawGet(uri, "gzip, deflate");
+        assertThat(gzip.headers.get("X-Cache")).isEqualTo("HIT");
+        assertThat(gzip.headers.get("Content-Encoding")).isEqualTo("gzip");
+        assertThat(gzip.body.length).isLessThan(miss.body.length / 4);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip.body))) {
+            assertThat(in.readAllBytes()).isEqualTo(miss.body);
+        }
+
+        RawResponse identity = rawGet(uri, "gzip;q=0");
+        assertThat(identity.headers.get("X-Cache")).isEqualTo("HIT");
+        assertThat(identity.headers.get("Content-Encoding")).isNull();
+        assertThat(identity.body).isEqualTo(miss.body);
+        assertThat(hits("/items/9")).isEqualTo(1);
+    }
+
+    record RawResponse(io.netty.handler.codec.http.HttpHeaders headers, byte[] body) {
+    }
+
+    // WebClient negotiates and inflates gzip itself, so talk to the gateway without it
+    RawResponse rawGet(String uri, String acceptEncoding) {
+        return HttpClient.create()
+                .headers(h -> h.set("Accept-Encoding", acceptEncoding))
+                .get()
+                .uri("http://127.0.0.1:" + port + uri)
+                .responseSingle((res, body) -> body.asByteArray()
+                        .map(bytes -> new RawResponse(res.responseHeaders(), bytes)))
+                .block(Duration.ofSeconds(10));
+    }
+}
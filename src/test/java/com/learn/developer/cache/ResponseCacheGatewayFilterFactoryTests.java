@@ -0,0 +1,54 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ResponseCacheGatewayFilterFactoryTests {
+
+    @Test
+    void policiesOfRemovedRoutesAreDroppedWithTheirCachesAndMeters() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        CacheProperties props = new CacheProperties();
+        ResponseExpiry expiry = new ResponseExpiry(props.getTtl());
+        InvalidationIndex index = new InvalidationIndex();
+        CachePolicy defaultPolicy = new CachePolicy(CachePolicy.DEFAULT_ROUTE, props.getTtl(),
+                props.getMaxBodyBytes(), props.getVaryHeaders(), false, false,
+                CacheConfig.newCache(1024 * 1024, expiry, null, index, null, registry.counter("evictions")), false,
+                false, registry);
+        DefaultListableBeanFactory beans = new DefaultListableBeanFactory();
+        ResponseCacheGatewayFilterFactory factory = new ResponseCacheGatewayFilterFactory(props, defaultPolicy,
+                expiry, beans.getBeanProvider(DiskTier.class), index, beans.getBeanProvider(PrincipalPartitions.class),
+                registry);
+
+        factory.apply(config("kept"));
+        factory.apply(config("removed"));
+        CachePolicy removed = factory.getPolicies().stream()
+                .filter(p -> p.getRouteId().equals("removed")).findFirst().orElseThrow();
+        removed.getCache().put(CacheKey.of("GET", "/items/1", ""), CacheWeightTests.entry("x", null));
+        assertThat(registry.find("gateway.cache.route.size").tag("route", "removed").gauge()).isNotNull();
+
+        factory.retainRoutes(Set.of("kept", "added"));
+
+        assertThat(factory.getPolicies()).extracting(CachePolicy::getRouteId).containsExactly("kept");
+        assertThat(removed.getCache().asMap()).isEmpty();
+        assertThat(registry.find("gateway.cache.route.size").tag("route", "removed").gauge()).isNull();
+        assertThat(registry.find("gateway.cache.route.requests").tag("route", "removed").counter()).isNull();
+        assertThat(registry.find("gateway.cache.route.size").tag("route", "kept").gauge()).isNotNull();
+    }
+
+    private static ResponseCacheGatewayFilterFactory.Config config(String routeId) {
+        ResponseCacheGatewayFilterFactory.Config config = new ResponseCacheGatewayFilterFactory.Config();
+        config.setRouteId(routeId);
+        config.setTtl(Duration.ofMinutes(1));
+        config.setMaxWeightBytes(1024L * 1024);
+        return config;
+    }
+}
@@ -0,0 +1,55 @@
+package com.learn.developer.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class SlabAllocatorTests {
+
+    @Test
+    void chunksAreSizedToTheirClassAndReusedAfterFree() {
+        SlabAllocator allocator = new SlabAllocator(64 * 1024, 16 * 1024, 1024);
+
+        SlabAllocator.Chunk small = allocator.allocate(700);
+        SlabAllocator.Chunk large = allocator.allocate(5000);
+        assertThat(small.capacity()).isEqualTo(1024);
+        assertThat(large.capacity()).isEqualTo(8192);
+        assertThat(allocator.getUsedBytes()).isEqualTo(1024 + 8192);
+
+        allocator.free(small);
+        allocator.free(large);
+        assertThat(allocator.getUsedBytes()).isZero();
+        // both slabs went back to the pool, so a full-slab chunk fits without reserving more
+        assertThat(allocator.allocate(16 * 1024)).isNotNull();
+        assertThat(allocator.getReservedBytes()).isEqualTo(32 * 1024);
+    }
+
+    @Test
+    void allocationFailsWhenCapacityIsExhausted() {
+        SlabAllocator allocator = new SlabAllocator(32 * 1024, 16 * 1024, 1024);
+
+        assertThat(allocator.allocate(16 * 1024)).isNotNull();
+        assertThat(allocator.allocate(16 * 1024)).isNotNull();
+        assertThat(allocator.allocate(1)).isNull();
+        assertThat(allocator.allocate(32 * 1024)).isNull();
+    }
+
+    @Test
+    void offHeapBodyIsFreedOnlyAfterTheLastRelease() {
+        SlabAllocator allocator = new SlabAllocator(16 * 1024, 16 * 1024, 1024);
+        CachedBody body = CachedBody.offHeap("hello".getBytes(StandardCharsets.UTF_8), allocator);
+
+        assertThat(body.view().isDirect()).isTrue();
+        assertThat(StandardCharsets.UTF_8.decode(body.view()).toString()).isEqualTo("hello");
+
+        assertThat(body.retain()).isTrue(); // a response being written
+        body.release(); // evicted from the cache
+        assertThat(allocator.getUsedBytes()).isEqualTo(1024);
+
+        body.release(); // write finished
+        assertThat(allocator.getUsedBytes()).isZero();
+        assertThat(body.retain()).isFalse();
+    }
+}